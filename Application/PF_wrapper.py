@@ -2,7 +2,7 @@ import subprocess
 import numpy as np
 import os
 
-def train(train_file, test_file=None, train_labels=None, test_labels=None, exists_testlabels=False, return_predictions=False, return_proximities=False, save_model=True, model_name="PF", output_directory="", repeats=1, num_trees=11, r=5, on_tree=True, max_depth=0, shuffle=False, export=1, verbosity=1, file_has_header=False, target_column="first", distances=None, memory='1g', parallel_trees=False, parallel_predict=False, parallel_prox=False, impute_training_data=False, impute_testing_data=False, impute_iterations=5, return_imputed_training=False, return_imputed_testing=False, knn_distances=None, data_dimension=1, numeric_data=True, entry_separator=",", array_separator=":", return_training_outlier_scores=False, initial_imputer="mean", regressor=False, purity="gini", purity_threshold=1e-6, regressor_aggregation="mean", DTWImpute=False, missing_indicators=["", "NA", "NaN", "null", "nan", "NAN"]):
+def train(train_file, test_file=None, train_labels=None, test_labels=None, exists_testlabels=False, return_predictions=False, return_proximities=False, save_model=True, model_name="PF", output_directory="", repeats=1, num_trees=11, r=5, on_tree=True, max_depth=0, shuffle=False, export=1, verbosity=1, file_has_header=False, target_column="first", distances=None, memory='1g', parallel_trees=False, parallel_predict=False, parallel_prox=False, impute_training_data=False, impute_testing_data=False, impute_iterations=5, return_imputed_training=False, return_imputed_testing=False, knn_distances=None, data_dimension=1, numeric_data=True, entry_separator=",", array_separator=":", return_training_outlier_scores=False, initial_imputer="mean", regressor=False, purity="gini", purity_threshold=1e-6, regressor_aggregation="mean", DTWImpute=False, missing_indicators=["", "NA", "NaN", "null", "nan", "NAN"], tree_growth="depth", max_leaves=0, data_store=None, data_store_cache_mb=128, parallel_nodes=False, parallel_node_threshold=128, parallel_splits=False, parallel_split_threshold=1000, threads=0, batch_predict=False, batch_size=4096, transform_cache_mb=64, prox_format="txt", prox_float32=False, prox_topk=0, incremental_prox=False):
     
     TFdict = {True:"true", False:"false"}
     if (data_dimension not in [1,2]):
@@ -27,6 +27,10 @@ def train(train_file, test_file=None, train_labels=None, test_labels=None, exist
     msgList.extend(["-r=" + str(r)])
     msgList.extend(["-on_tree=" + TFdict[on_tree]])
     msgList.extend(["-max_depth=" + str(max_depth)]) #max_depth=0 means no max depth.
+    if tree_growth != "depth":
+        msgList.extend(["-tree_growth=" + tree_growth]) #"breadth" grows the trees level by level.
+    if max_leaves > 0:
+        msgList.extend(["-max_leaves=" + str(max_leaves)]) #max_leaves=0 means no leaf budget.
     msgList.extend(["-shuffle=" + TFdict[shuffle]])
     msgList.extend(["-export=" + str(export)])
     msgList.extend(["-verbosity=" + str(verbosity)])
@@ -37,8 +41,33 @@ def train(train_file, test_file=None, train_labels=None, test_labels=None, exist
     msgList.extend(["-savemodel=" + TFdict[save_model]])
     msgList.extend(["-modelname=" + model_name])
     msgList.extend(["-parallelTrees=" + TFdict[parallel_trees]])
+    if data_store is not None:
+        msgList.extend(["-dataStore=" + data_store]) #keeps the training series in this memory-mapped file instead of the heap.
+        if data_store_cache_mb != 128:
+            msgList.extend(["-dataStoreCacheMB=" + str(data_store_cache_mb)]) #memory for rows decoded out of the store; 0 decodes on every access.
+    if parallel_nodes:
+        msgList.extend(["-parallelNodes=true"]) #trains the large nodes of each tree as parallel tasks.
+        msgList.extend(["-parallelNodeThreshold=" + str(parallel_node_threshold)])
+    if parallel_splits:
+        msgList.extend(["-parallelSplits=true"]) #evaluates the candidate splits of large nodes in parallel.
+        msgList.extend(["-parallelSplitThreshold=" + str(parallel_split_threshold)])
     msgList.extend(["-parallelProx=" + TFdict[parallel_prox]])
     msgList.extend(["-parallelPredict=" + TFdict[parallel_predict]])
+    if threads > 0:
+        msgList.extend(["-threads=" + str(threads)]) #caps the worker threads of all parallel stages; 0 uses every processor.
+    if batch_predict:
+        msgList.extend(["-batchPredict=true"]) #routes the test set through each tree in batches, node by node.
+        msgList.extend(["-batchSize=" + str(batch_size)])
+    if transform_cache_mb != 64:
+        msgList.extend(["-transformCacheMB=" + str(transform_cache_mb)]) #memory for cached derivatives/histograms/SBD spectra; 0 disables the cache.
+    if prox_format != "txt":
+        msgList.extend(["-prox_format=" + prox_format]) #"npy" or "csr" writes the proximities as binary .npy files (see getBinaryArray/getSparseArray).
+    if prox_float32:
+        msgList.extend(["-prox_float32=true"]) #writes npy/csr proximity values as float32.
+    if prox_topk > 0:
+        msgList.extend(["-prox_topk=" + str(prox_topk)]) #keeps the prox_topk strongest proximities per row; writes *_topk_indices/*_topk_weights (see getTopKArrays) instead of the full matrix.
+    if incremental_prox:
+        msgList.extend(["-incrementalProx=true"]) #each tree adds its out-of-bag proximities as soon as it is trained, then drops its out-of-bag lists; needs return_proximities or outlier scores in this same run.
     msgList.extend(["-hasMissingValues=" + TFdict[impute_training_data]])
     msgList.extend(["-numImputes=" + str(impute_iterations)])
     msgList.extend(["-impute_train=" + TFdict[return_imputed_training]])
@@ -93,7 +122,7 @@ def train(train_file, test_file=None, train_labels=None, test_labels=None, exist
     return
 
 
-def predict(model_name, testfile, test_labels=None, exists_testlabels=False, return_predictions=False, return_proximities=False, output_directory="", shuffle=False, export=1, verbosity=1, file_has_header=False, target_column="first", parallel_trees=False, parallel_prox=False, parallel_predict=False, memory='1g', data_dimension=1, numeric_data=True, entry_separator=",", array_separator=":", impute_testing_data=False, impute_iterations=5, return_imputed_testing=False, initial_imputer="mean", DTWImpute=False, knn_distances=None, distances=None, missing_indicators=["", "NA", "NaN", "null", "nan", "NAN"]):
+def predict(model_name, testfile, test_labels=None, exists_testlabels=False, return_predictions=False, return_proximities=False, output_directory="", shuffle=False, export=1, verbosity=1, file_has_header=False, target_column="first", parallel_trees=False, parallel_prox=False, parallel_predict=False, memory='1g', data_dimension=1, numeric_data=True, entry_separator=",", array_separator=":", impute_testing_data=False, impute_iterations=5, return_imputed_testing=False, initial_imputer="mean", DTWImpute=False, knn_distances=None, distances=None, missing_indicators=["", "NA", "NaN", "null", "nan", "NAN"], threads=0, batch_predict=False, batch_size=4096, transform_cache_mb=64, prox_format="txt", prox_float32=False, prox_topk=0):
     
     TFdict = {True:"true", False:"false"}
     if (data_dimension not in [1,2]):
@@ -129,6 +158,19 @@ def predict(model_name, testfile, test_labels=None, exists_testlabels=False, ret
     msgList.extend(["-parallelTrees=" + TFdict[parallel_trees]])
     msgList.extend(["-parallelProx=" + TFdict[parallel_prox]])
     msgList.extend(["-parallelPredict=" + TFdict[parallel_predict]])
+    if threads > 0:
+        msgList.extend(["-threads=" + str(threads)]) #caps the worker threads of all parallel stages; 0 uses every processor.
+    if batch_predict:
+        msgList.extend(["-batchPredict=true"]) #routes the test set through each tree in batches, node by node.
+        msgList.extend(["-batchSize=" + str(batch_size)])
+    if transform_cache_mb != 64:
+        msgList.extend(["-transformCacheMB=" + str(transform_cache_mb)]) #memory for cached derivatives/histograms/SBD spectra; 0 disables the cache.
+    if prox_format != "txt":
+        msgList.extend(["-prox_format=" + prox_format]) #"npy" or "csr" writes the proximities as binary .npy files (see getBinaryArray/getSparseArray).
+    if prox_float32:
+        msgList.extend(["-prox_float32=true"]) #writes npy/csr proximity values as float32.
+    if prox_topk > 0:
+        msgList.extend(["-prox_topk=" + str(prox_topk)]) #keeps the prox_topk strongest proximities per row; writes *_topk_indices/*_topk_weights (see getTopKArrays) instead of the full matrix.
     msgList.extend(["-is2D=" + TFdict[is2D]])
     msgList.extend(["-isNumeric=" + TFdict[numeric_data]])
     msgList.extend(["-entry_separator=" + entry_separator])
@@ -185,3 +227,26 @@ def getArray(filename):
     Arr = eval("np.array(" + f2 + ")")
     return Arr
 
+def getBinaryArray(filename, mmap=True):
+    # reads proximities written with -prox_format=npy without parsing them.
+    # With mmap=True the file is memory-mapped rather than loaded.
+    return np.load(filename, mmap_mode="r" if mmap else None)
+
+def getSparseArray(prefix, n_cols=None):
+    # reads proximities written with -prox_format=csr, e.g. prefix="output/TrainingProximities".
+    # n_cols is the number of training samples; it defaults to a square matrix.
+    from scipy.sparse import csr_matrix
+    indptr = np.load(prefix + "_indptr.npy")
+    indices = np.load(prefix + "_indices.npy")
+    data = np.load(prefix + "_data.npy")
+    n_rows = len(indptr) - 1
+    return csr_matrix((data, indices, indptr), shape=(n_rows, n_rows if n_cols is None else n_cols))
+
+def getTopKArrays(prefix):
+    # reads proximities written with prox_topk > 0, e.g. prefix="output/TrainingProximities".
+    # Returns the N x k neighbour indices (-1 where a row has fewer than k neighbours) and weights,
+    # from the .npy files written with prox_format="npy", otherwise from the .txt files.
+    if os.path.isfile(prefix + "_topk_indices.npy"):
+        return np.load(prefix + "_topk_indices.npy"), np.load(prefix + "_topk_weights.npy")
+    return getArray(prefix + "_topk_indices.txt"), getArray(prefix + "_topk_weights.txt")
+
@@ -144,6 +144,21 @@ public class PFApplication {
 				case "-max_depth":
 					AppContext.max_depth = Integer.parseInt(options[1]);
 					break;
+				case "-tree_growth":
+					AppContext.tree_growth = options[1];
+					break;
+				case "-dataStore":
+					AppContext.data_store = options[1];
+					break;
+				case "-dataStoreCacheMB":
+					AppContext.data_store_cache_mb = Integer.parseInt(options[1]);
+					break;
+				case "-transformCacheMB":
+					AppContext.transform_cache_mb = Integer.parseInt(options[1]);
+					break;
+				case "-max_leaves":
+					AppContext.max_leaves = Integer.parseInt(options[1]);
+					break;
 				case "-shuffle":
 					AppContext.shuffle_dataset = Boolean.parseBoolean(options[1]);
 					break;
@@ -183,15 +198,52 @@ public class PFApplication {
 				case "-savemodel":
 					AppContext.savemodel = Boolean.parseBoolean(options[1]);
 					break;
+				case "-threads":
+					AppContext.threads = Integer.parseInt(options[1]);
+					if (AppContext.threads > 0) {
+						// the parallel streams of the imputers run in the common pool; cap it too (the caller is a worker of its own)
+						System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", String.valueOf(Math.max(1, AppContext.threads - 1)));
+					}
+					break;
 				case "-parallelTrees":
 					AppContext.parallelTrees = Boolean.parseBoolean(options[1]);
 					break;
+				case "-parallelNodes":
+					AppContext.parallelNodes = Boolean.parseBoolean(options[1]);
+					break;
+				case "-parallelNodeThreshold":
+					AppContext.parallelNodeThreshold = Integer.parseInt(options[1]);
+					break;
+				case "-parallelSplits":
+					AppContext.parallelSplits = Boolean.parseBoolean(options[1]);
+					break;
+				case "-parallelSplitThreshold":
+					AppContext.parallelSplitThreshold = Integer.parseInt(options[1]);
+					break;
+				case "-batchPredict":
+					AppContext.batchPredict = Boolean.parseBoolean(options[1]);
+					break;
+				case "-batchSize":
+					AppContext.batchSize = Integer.parseInt(options[1]);
+					break;
 				case "-parallelProx":
 					AppContext.parallelProx = Boolean.parseBoolean(options[1]);
 					break;
 				case "-parallelPredict":
 					AppContext.parallelPredict = Boolean.parseBoolean(options[1]);
 					break;
+				case "-incrementalProx":
+					AppContext.incrementalProx = Boolean.parseBoolean(options[1]);
+					break;
+				case "-prox_topk":
+					AppContext.prox_topk = Integer.parseInt(options[1]);
+					break;
+				case "-prox_format":
+					AppContext.prox_format = options[1];
+					break;
+				case "-prox_float32":
+					AppContext.prox_float32 = Boolean.parseBoolean(options[1]);
+					break;
 				case "-knn_distances":
 					//String[] distanceNames = options[1].split(",");
 					/*MEASURE[] measures = Arrays.stream(distanceNames)
@@ -11,6 +11,8 @@ import distance.MEASURE;
 import imputation.Imputer;
 import imputation.MeanImpute;
 import imputation.MissingIndices;
+import proximities.SparseProximityMatrix;
+import proximities.TopKProximities;
 
 /**
  * 
@@ -102,11 +104,24 @@ public class AppContext {
 	public static MEASURE[] userdistances; //= {MEASURE.dtw};
 	public static MEASURE[] KNNdistances; //only used in KNN initial imputation.
 	public static List<String[]> Descriptors = new ArrayList<>(); //this is specifically to store file names for custom java distances.
+	public static int threads; // workers of the WorkerPool that every parallel stage runs on; 0 means one per processor.
 	public static boolean parallelTrees = false; //false;
+	public static boolean parallelNodes = false; // the nodes of each tree are trained as tasks on the WorkerPool too.
+	public static int parallelNodeThreshold = 128; // with parallelNodes, the fewest in-bag rows for a node to be trained as a task of its own.
+	public static boolean parallelSplits = false; // large nodes evaluate their candidate splits, and the rows of each, in parallel.
+	public static int parallelSplitThreshold = 1000; // with parallelSplits, the fewest in-bag rows for a node's splits to be evaluated in parallel.
 	public static boolean parallelProx = false; //false;
 	public static boolean parallelPredict = false; // if parallelTrees=true, predictions will be made in parallel across trees.
+	public static boolean batchPredict = false; // test sets are routed through each tree in batches, node by node, rather than query by query.
+	public static int batchSize = 4096; // series per batch when batchPredict=true.
+	public static boolean incrementalProx = false; // trees add their training proximities to a shared accumulator as soon as they finish training.
 	// parallelPredict refers to parallelization across data instances (will not happen if parallelTrees=true).
 	public static int max_depth; //initializes to 0.
+	public static String tree_growth = "depth"; // "depth" trains nodes depth-first, "breadth" grows each tree level by level.
+	public static int max_leaves; // leaf budget per tree, 0 means none; a budget implies breadth-first growth.
+	public static String data_store = null; // if set, numeric training data without missing values is converted once into this memory-mapped store file and read from it.
+	public static int data_store_cache_mb = 128; // memory for the rows decoded out of a data_store, so repeated scans reuse them (see MappedObjectDataset); 0 disables the cache.
+	public static int transform_cache_mb = 64; // memory for the derivatives and histograms cached by DDTW, WDDTW and ShapeHoG (see TransformCache); 0 disables the cache.
 	public static boolean impute_train = false;
 	public static boolean impute_test = false;
 	public static boolean DTWImpute = false;
@@ -128,8 +143,13 @@ public class AppContext {
 	public static transient double[][] training_proximities;
 	public static transient double[][] testing_training_proximities;
 	public static boolean useSparseProximities = true; //should be dense if returned??
-	public static Map<Integer, Map<Integer, Double>> training_proximities_sparse;
-	public static Map<Integer, Map<Integer, Double>> testing_training_proximities_sparse;
+	public static SparseProximityMatrix training_proximities_sparse;
+	public static SparseProximityMatrix testing_training_proximities_sparse;
+	public static int prox_topk = 0; // when greater than 0, only the prox_topk strongest proximities per row are kept.
+	public static TopKProximities training_proximities_topk;
+	public static TopKProximities testing_training_proximities_topk;
+	public static String prox_format = "txt"; // txt, npy (little-endian NumPy arrays) or csr (indptr/indices/data .npy files).
+	public static boolean prox_float32 = false; // write npy/csr proximity values as float32 instead of float64.
 
 	static {
 		rand = new Random();
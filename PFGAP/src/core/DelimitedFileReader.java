@@ -1,6 +1,7 @@
 package core;
 
 import datasets.ListObjectDataset;
+import datasets.MappedObjectDataset;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import util.PrintUtilities;
 
@@ -166,6 +167,70 @@ public class DelimitedFileReader {
     }
 
 
+    /**
+     * Reads numeric data without missing values into the memory-mapped store at storeFileName, parsing the file
+     * line by line so the data is never on the heap as a whole. The store is reused as is when it was converted
+     * from the same files with the same options and is newer than them; otherwise it is (re)written first.
+     */
+    public static MappedObjectDataset readToMappedObjectDataset(
+            String dataFileName,
+            String labelFileName,
+            String entry_separator,
+            String array_separator,
+            boolean hasHeader,
+            boolean is2D,
+            boolean targetColumnIsFirst,
+            boolean isRegression,
+            String storeFileName
+    ) {
+        String source = String.join("|", new File(dataFileName).getAbsolutePath(),
+                labelFileName == null ? "" : new File(labelFileName).getAbsolutePath(),
+                entry_separator, array_separator, String.valueOf(hasHeader), String.valueOf(is2D),
+                String.valueOf(targetColumnIsFirst), String.valueOf(isRegression));
+        File store = new File(storeFileName);
+        long start = System.nanoTime();
+
+        try {
+            boolean upToDate = source.equals(MappedObjectDataset.source(storeFileName))
+                    && store.lastModified() >= new File(dataFileName).lastModified()
+                    && (labelFileName == null || store.lastModified() >= new File(labelFileName).lastModified());
+            if (!upToDate) {
+                List<Object> labels = new ArrayList<>();
+                if (labelFileName != null) {
+                    labels = readGenericLabels(labelFileName, hasHeader, isRegression);
+                }
+                try (BufferedReader br = new BufferedReader(new FileReader(dataFileName));
+                     MappedObjectDataset.Writer writer = new MappedObjectDataset.Writer(storeFileName, source)) {
+                    if (hasHeader) br.readLine(); // skip header
+                    String line;
+                    int i = 0;
+                    while ((line = br.readLine()) != null) {
+                        Object label = labelFileName != null ? labels.get(i) : null;
+                        if (is2D) {
+                            writer.add(label, RowParser.parseDoubleMatrix(line, array_separator, entry_separator), i);
+                        } else if (labelFileName == null) {
+                            ParsedDoubleRow parsed = RowParser.parseDoubleRow(line.split(entry_separator), targetColumnIsFirst, isRegression);
+                            writer.add(parsed.label, parsed.features, i);
+                        } else {
+                            writer.add(label, RowParser.parseDoubleArray(line, entry_separator), i);
+                        }
+                        ProgressLogger.logProgress(i);
+                        i++;
+                    }
+                }
+            }
+
+            MappedObjectDataset dataset = MappedObjectDataset.open(storeFileName);
+            AppContext.length = dataset.getLength();
+            ProgressLogger.logDuration(start, System.nanoTime());
+            return dataset;
+        } catch (IOException e) {
+            PrintUtilities.abort(e);
+        }
+        return null;
+    }
+
+
 
     public class ProgressLogger {
 
@@ -9,12 +9,16 @@ import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 //import datasets.ListDataset;
+import core.contracts.ObjectDataset;
 import datasets.ListObjectDataset;
 import imputation.MissingIndicesBuilder;
 import org.apache.commons.lang3.ArrayUtils;
 import proximities.DTWPFImpute;
 import proximities.OutlierScorer;
 import proximities.PFImpute;
+import proximities.ProximityWriter;
+import proximities.SparseProximityMatrix;
+import proximities.TopKProximities;
 import trees.ProximityForest;
 import util.GeneralUtilities;
 import util.PrintUtilities;
@@ -22,6 +26,7 @@ import util.PrintUtilities;
 import static application.PFApplication.UCR_dataset;
 import static proximities.PFGAP.computeTestTrainProximities;
 import static proximities.PFGAP.computeTrainProximities;
+import static proximities.PFGAP.sparseProximitiesInUse;
 
 
 /**
@@ -34,7 +39,7 @@ import static proximities.PFGAP.computeTrainProximities;
 public class ExperimentRunner {
 
 	//ListDataset train_data;
-	ListObjectDataset train_data;
+	ObjectDataset train_data;
 	//ListDataset test_data;
 	ListObjectDataset test_data;
 	private static String csvSeparatpr = "\t"; //for tsv files.
@@ -50,7 +55,7 @@ public class ExperimentRunner {
 
 		if(!eval) {
 
-			ListObjectDataset train_data_original;
+			ObjectDataset train_data_original;
 			//ListDataset test_data_original = null; //we will overwrite this.
 			ListObjectDataset test_data_original = null; //we will overwrite this.
 			if (AppContext.testing_file != null) {
@@ -80,19 +85,34 @@ public class ExperimentRunner {
 			/*train_data_original =
 					CSVReader.readCSVToListDataset(AppContext.training_file, AppContext.csv_has_header,
 							AppContext.target_column_is_first, csvSeparatpr);*/
-			train_data_original =
-					DelimitedFileReader.readToListObjectDataset(
-							AppContext.training_file,
-							AppContext.training_labels,
-							AppContext.entry_separator,
-							AppContext.array_separator,
-							AppContext.csv_has_header,
-							AppContext.is2D,
-							AppContext.isNumeric,
-							AppContext.hasMissingValues,
-							AppContext.target_column_is_first,
-							false,
-							AppContext.isRegression);
+			if (AppContext.data_store != null && AppContext.isNumeric && !AppContext.hasMissingValues) {
+				// the training series stay in a memory-mapped store file instead of on the heap
+				train_data_original =
+						DelimitedFileReader.readToMappedObjectDataset(
+								AppContext.training_file,
+								AppContext.training_labels,
+								AppContext.entry_separator,
+								AppContext.array_separator,
+								AppContext.csv_has_header,
+								AppContext.is2D,
+								AppContext.target_column_is_first,
+								AppContext.isRegression,
+								AppContext.data_store);
+			} else {
+				train_data_original =
+						DelimitedFileReader.readToListObjectDataset(
+								AppContext.training_file,
+								AppContext.training_labels,
+								AppContext.entry_separator,
+								AppContext.array_separator,
+								AppContext.csv_has_header,
+								AppContext.is2D,
+								AppContext.isNumeric,
+								AppContext.hasMissingValues,
+								AppContext.target_column_is_first,
+								false,
+								AppContext.isRegression);
+			}
 			//}
 			//else{
 			//	train_data_original = test_data_original;
@@ -192,13 +212,13 @@ public class ExperimentRunner {
 				if (AppContext.hasMissingValues && AppContext.isNumeric && !AppContext.DTWImpute) {
 					System.out.println("Imputing the training set...");
 					//first, do the mean impute. Later, we'll let users select which imputer to use.
-					AppContext.initial_imputer.Impute(train_data);
+					AppContext.initial_imputer.Impute(onHeap(train_data));
 					for (int j = 0; j < AppContext.numImputes; j++) {
 						//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 						ProximityForest forest = new ProximityForest(i, AppContext.userdistances);
 						forest.train(train_data);
 						computeTrainProximities(forest, train_data);
-						PFImpute.trainNumericImpute(train_data);
+						PFImpute.trainNumericImpute(onHeap(train_data));
 						//forest = null;
 						//System.gc();
 					}
@@ -208,14 +228,14 @@ public class ExperimentRunner {
 				if (AppContext.hasMissingValues && AppContext.isNumeric && AppContext.DTWImpute) {
 					System.out.println("Imputing the training set...");
 					//first, do the mean impute. Later, we'll let users select which imputer to use.
-					AppContext.initial_imputer.Impute(train_data);
+					AppContext.initial_imputer.Impute(onHeap(train_data));
 					for (int j = 0; j < AppContext.numImputes; j++) {
 						//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 						ProximityForest forest = new ProximityForest(i, AppContext.userdistances);
 						forest.train(train_data);
 						computeTrainProximities(forest, train_data);
-						DTWPFImpute.buildAlignmentPathCache(train_data, train_data, AppContext.training_proximities_sparse, AppContext.is2D, -1);
-						DTWPFImpute.trainNumericImpute(train_data);
+						DTWPFImpute.buildAlignmentPathCache(onHeap(train_data), onHeap(train_data), AppContext.training_proximities_sparse, AppContext.is2D, -1);
+						DTWPFImpute.trainNumericImpute(onHeap(train_data));
 						//forest = null;
 						//System.gc();
 					}
@@ -265,7 +285,7 @@ public class ExperimentRunner {
 							//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 							System.out.println("Updating missing values...");
 							computeTestTrainProximities(forest, test_data, train_data); //what is train_data??
-							PFImpute.testNumericImpute(test_data, train_data); //again, is train_data defined??
+							PFImpute.testNumericImpute(test_data, onHeap(train_data)); //again, is train_data defined??
 						}
 					}
 
@@ -277,8 +297,8 @@ public class ExperimentRunner {
 						for (int j = 0; j < AppContext.numImputes; j++){
 							//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 							computeTestTrainProximities(forest, test_data, train_data); //what is train_data??
-							DTWPFImpute.buildAlignmentPathCache(test_data, train_data, AppContext.testing_training_proximities_sparse, AppContext.is2D, -1);
-							DTWPFImpute.testNumericImpute(test_data, train_data);
+							DTWPFImpute.buildAlignmentPathCache(test_data, onHeap(train_data), AppContext.testing_training_proximities_sparse, AppContext.is2D, -1);
+							DTWPFImpute.testNumericImpute(test_data, onHeap(train_data));
 
 						}
 					}
@@ -339,7 +359,7 @@ public class ExperimentRunner {
 					computeTrainProximities(forest, train_data);
 					System.out.println("Computing Training Outlier Scores...");
 					double[] scores = OutlierScorer.getOutlierScores(
-							AppContext.useSparseProximities,
+							sparseProximitiesInUse(),
 							false, // symmetrize??
 							true, // parallelize
 							train_data._internal_class_array(),
@@ -361,7 +381,7 @@ public class ExperimentRunner {
 					// and now the outlier scores
 					System.out.println("Computing Training Outlier Scores...");
 					double[] scores = OutlierScorer.getOutlierScores(
-							AppContext.useSparseProximities,
+							sparseProximitiesInUse(),
 							false, // symmetrize??
 							true, // parallelize
 							train_data._internal_class_array(),
@@ -391,10 +411,7 @@ public class ExperimentRunner {
 
 
 					//Now we print the PFGAP array to a text file.
-					PrintWriter writer = new PrintWriter(AppContext.output_dir + "TrainingProximities.txt", StandardCharsets.UTF_8);
-					//writer.print(ArrayUtils.toString(PFGAP));
-					writer.print(ArrayUtils.toString(AppContext.training_proximities));
-					writer.close();
+					writeProximities("TrainingProximities", AppContext.training_proximities, AppContext.training_proximities_topk);
 					//Integer[] ytrain = new Integer[train_data.size()];
 					//for (Integer k = 0; k < train_data.size(); k++) {
 					//	ytrain[k] = train_data.get_class(k);
@@ -414,10 +431,7 @@ public class ExperimentRunner {
 
 
 						//Now we print the PFGAP array to a text file.
-						PrintWriter writer3 = new PrintWriter(AppContext.output_dir + "TestTrainProximities.txt", StandardCharsets.UTF_8);
-						//writer.print(ArrayUtils.toString(PFGAP));
-						writer3.print(ArrayUtils.toString(AppContext.testing_training_proximities));
-						writer3.close();
+						writeProximities("TestTrainProximities", AppContext.testing_training_proximities, AppContext.testing_training_proximities_topk);
 						//Integer[] ytest = new Integer[test_data.size()];
 						//for (int k = 0; k < test_data.size(); k++) {
 						//	ytest[k] = test_data.get_class(k);
@@ -459,7 +473,9 @@ public class ExperimentRunner {
 			ModelIO.LoadedModel loaded = ModelIO.loadModel(AppContext.modelname + ".ser");
 			ModelIO.applySnapshot(loaded.snapshot);
 			ProximityForest forest1 = loaded.forest;
-			ListObjectDataset train_data = loaded.trainData;
+			ObjectDataset train_data = loaded.trainData;
+			// the imputers need the training series on the heap; a model trained on a mapped store copies them once
+			ListObjectDataset train_rows = AppContext.hasMissingValues ? onHeap(train_data) : null;
 
 			ListObjectDataset test_data_original;
 			test_data_original =
@@ -509,7 +525,7 @@ public class ExperimentRunner {
 						//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 						System.out.println("Updating missing values...");
 						computeTestTrainProximities(forest1, test_data, train_data); //what is train_data??
-						PFImpute.testNumericImpute(test_data, train_data); //again, is train_data defined??
+						PFImpute.testNumericImpute(test_data, train_rows); //again, is train_data defined??
 					}
 				}
 
@@ -522,8 +538,8 @@ public class ExperimentRunner {
 						//do the PF update (PFImpute is NOT an actual imputer, but an updater.)
 						System.out.println("Updating missing values...");
 						computeTestTrainProximities(forest1, test_data, train_data); //what is train_data??
-						DTWPFImpute.buildAlignmentPathCache(test_data, train_data, AppContext.testing_training_proximities_sparse, AppContext.is2D, -1);
-						DTWPFImpute.testNumericImpute(test_data, train_data);
+						DTWPFImpute.buildAlignmentPathCache(test_data, train_rows, AppContext.testing_training_proximities_sparse, AppContext.is2D, -1);
+						DTWPFImpute.testNumericImpute(test_data, train_rows);
 
 					}
 				}
@@ -555,10 +571,7 @@ public class ExperimentRunner {
 
 
 					//Now we print the PFGAP array to a text file.
-					PrintWriter writer3 = new PrintWriter(AppContext.output_dir + "TestTrainProximities.txt", StandardCharsets.UTF_8);
-					//writer.print(ArrayUtils.toString(PFGAP));
-					writer3.print(ArrayUtils.toString(AppContext.testing_training_proximities));
-					writer3.close();
+					writeProximities("TestTrainProximities", AppContext.testing_training_proximities, AppContext.testing_training_proximities_topk);
 					//Integer[] ytest = new Integer[test_data.size()];
 					//for (int k = 0; k < test_data.size(); k++) {
 					//	ytest[k] = test_data.get_class(k);
@@ -604,4 +617,41 @@ public class ExperimentRunner {
 
 	}
 
+	// The imputers work on ListObjectDatasets; data that is not one (a mapped store) is copied onto the heap.
+	private static ListObjectDataset onHeap(ObjectDataset data) {
+		return data instanceof ListObjectDataset ? (ListObjectDataset) data : data.shallow_clone();
+	}
+
+	// With -prox_topk, the N x K neighbour indices and weights are written instead of the full matrix.
+	private static void writeProximities(String name, double[][] dense, TopKProximities topk) throws IOException {
+		String path = AppContext.output_dir + name;
+		boolean float32 = AppContext.prox_float32;
+		switch (AppContext.prox_format) {
+			case "npy":
+				if (AppContext.prox_topk > 0) {
+					ProximityWriter.writeTopK(path + "_topk", topk, float32);
+				} else {
+					ProximityWriter.writeDense(path + ".npy", dense, float32);
+				}
+				break;
+			case "csr":
+				SparseProximityMatrix sparse = AppContext.prox_topk > 0 ? topk.toSparse() : SparseProximityMatrix.fromDense(dense, 0.0);
+				ProximityWriter.writeSparse(path, sparse, float32);
+				break;
+			default:
+				if (AppContext.prox_topk > 0) {
+					PrintWriter indexWriter = new PrintWriter(path + "_topk_indices.txt", StandardCharsets.UTF_8);
+					indexWriter.print(ArrayUtils.toString(topk.indicesArray()));
+					indexWriter.close();
+					PrintWriter weightWriter = new PrintWriter(path + "_topk_weights.txt", StandardCharsets.UTF_8);
+					weightWriter.print(ArrayUtils.toString(topk.weightsArray()));
+					weightWriter.close();
+				} else {
+					PrintWriter writer = new PrintWriter(path + ".txt", StandardCharsets.UTF_8);
+					writer.print(ArrayUtils.toString(dense));
+					writer.close();
+				}
+		}
+	}
+
 }
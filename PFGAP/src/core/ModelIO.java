@@ -1,6 +1,6 @@
 package core;
 
-import datasets.ListObjectDataset;
+import core.contracts.ObjectDataset;
 import trees.ProximityForest;
 
 import java.io.*;
@@ -12,7 +12,7 @@ import java.util.Set;
 
 public class ModelIO {
 
-    public static void saveModel(String path, ProximityForest forest, ListObjectDataset trainData, AppContextSnapshot snapshot) throws IOException {
+    public static void saveModel(String path, ProximityForest forest, ObjectDataset trainData, AppContextSnapshot snapshot) throws IOException {
         try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(path))) {
             out.writeObject(forest);
             out.writeObject(trainData);
@@ -70,7 +70,7 @@ public class ModelIO {
             }
         }) {
             ProximityForest forest = (ProximityForest) in.readObject();
-            ListObjectDataset trainData = (ListObjectDataset) in.readObject();
+            ObjectDataset trainData = (ObjectDataset) in.readObject();
             AppContextSnapshot snapshot = (AppContextSnapshot) in.readObject();
             return new LoadedModel(forest, trainData, snapshot);
         }
@@ -138,10 +138,10 @@ public class ModelIO {
 
     public static class LoadedModel {
         public final ProximityForest forest;
-        public final ListObjectDataset trainData;
+        public final ObjectDataset trainData;
         public final AppContextSnapshot snapshot;
 
-        public LoadedModel(ProximityForest forest, ListObjectDataset trainData, AppContextSnapshot snapshot) {
+        public LoadedModel(ProximityForest forest, ObjectDataset trainData, AppContextSnapshot snapshot) {
             this.forest = forest;
             this.trainData = trainData;
             this.snapshot = snapshot;
@@ -0,0 +1,87 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The one ForkJoinPool that every parallel stage runs on: trees and their node tasks, candidate splits, predictions
+ * and proximities. Its size is AppContext.threads (all processors if 0), read when the pool is first used, so the
+ * process never runs more workers than that however the stages nest, and no stage creates threads of its own.
+ * A stage started from a task of another forks into the same pool, and work stealing balances the two.
+ */
+public final class WorkerPool {
+
+	/** Blocks per worker: enough for work stealing to even out uneven blocks, few enough to keep tasks cheap. */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private static final class PoolHolder {
+		static final ForkJoinPool POOL = new ForkJoinPool(AppContext.threads > 0 ? AppContext.threads : Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Work for the indices [from, to) of one block. */
+	public interface Block {
+		void run(int from, int to) throws Exception;
+	}
+
+	private WorkerPool() {
+	}
+
+	public static ForkJoinPool pool() {
+		return PoolHolder.POOL;
+	}
+
+	public static int parallelism() {
+		return pool().getParallelism();
+	}
+
+	/**
+	 * Runs task to completion: directly if the calling thread is already a worker of the pool, so the task's forks
+	 * stay in the pool, and by submitting it to the pool otherwise.
+	 */
+	public static <T> T invoke(ForkJoinTask<T> task) {
+		if (ForkJoinTask.getPool() == pool()) {
+			return task.invoke();
+		}
+		return pool().invoke(task);
+	}
+
+	/** Runs body in the pool, so any parallel stream it starts uses the pool's workers instead of the common pool. */
+	public static void run(Runnable body) {
+		invoke(ForkJoinTask.adapt(body));
+	}
+
+	/** Runs block over [0, n) in contiguous blocks spread over the pool's workers, and returns once all are done. */
+	public static void forEachBlock(int n, Block block) throws Exception {
+		int blocks = Math.min(n, parallelism() * BLOCKS_PER_THREAD);
+		if (blocks <= 1) {
+			block.run(0, n);
+			return;
+		}
+		List<RecursiveAction> tasks = new ArrayList<>(blocks);
+		for (int k = 0; k < blocks; k++) {
+			final int from = (int) ((long) n * k / blocks);
+			final int to = (int) ((long) n * (k + 1) / blocks);
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					try {
+						block.run(from, to);
+					} catch (RuntimeException e) {
+						throw e;
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+		}
+		invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+	}
+}
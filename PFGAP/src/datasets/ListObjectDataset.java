@@ -231,18 +231,7 @@ public class ListObjectDataset implements ObjectDataset, Serializable {
 
     @Override
     public double purity(String method) {
-        switch (method.toLowerCase()) {
-            case "gini":
-                return Gini.compute(this.labels);
-            case "variance":
-                return Variance.compute(this.labels);
-            case "entropy":
-                return Entropy.compute(this.labels);
-            case "mad":
-                return MAD.compute(this.labels);
-            default:
-                throw new IllegalArgumentException("Unknown purity method: " + method);
-        }
+        return Labels.of(method, this.labels).purity();
     }
 
     @Override
@@ -0,0 +1,717 @@
+package datasets;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import core.AppContext;
+import core.contracts.ObjectDataset;
+import imputation.MissingIndices;
+import purity.Labels;
+
+/**
+ * A dataset of numeric series kept in a read-only binary store file and memory-mapped, so the series live in the
+ * page cache instead of the Java heap. Only the labels, the row indices and the shape of every row are on the heap.
+ *
+ * A store is written once with a {@link Writer} (see DelimitedFileReader.readToMappedObjectDataset) and reopened
+ * with {@link #open}, which maps the file without parsing it. get_series(i) decodes row i out of the mapping into a
+ * double[] or double[][], because the distance kernels take whole arrays. Decoded rows are kept in a direct-mapped
+ * cache of at most AppContext.data_store_cache_mb, shared by every dataset over the store, so a row scanned again
+ * at the next candidate or node is not decoded and allocated again, and keeps its identity for TransformCache.
+ * The returned series are therefore shared and must not be modified.
+ *
+ * Store layout: magic and version (two ints), then the series as doubles, row after row and channel after channel,
+ * then a footer (source description, shapes, indices and labels), then the position of the footer as a long.
+ * The series are mapped in segments of at most SEGMENT_BYTES, so stores larger than 2GB can be mapped.
+ *
+ * Rows can be reordered, dropped and re-indexed (shuffle, remove, set_indices) on the heap side, but series cannot
+ * be added or replaced (add, setData): convert to a ListObjectDataset with shallow_clone() for that.
+ *
+ * Serializing the dataset (as ModelIO does) writes the path of the store and not the series; the store file
+ * must still exist when the dataset is read back.
+ */
+public class MappedObjectDataset implements ObjectDataset, Serializable {
+
+    private static final int MAGIC = 0x50465354; // "PFST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+    private static final int MAX_DECODED_SLOTS = 1 << 16;
+
+    private static final int NO_LABEL = -1;
+    private static final int TARGET = -2;
+
+    private final String path;
+    private transient Store store;
+
+    private int[] order;                    // store row of each row of this dataset
+    private int[] indices;                  // index of each row once set_indices was called, otherwise null (the store's)
+    private int size;
+    private List<Object> labelTable;        // code -> label (remapped by reorder_class_labels)
+    private Map<Object, Integer> classMap;  // class label -> count, as in ListObjectDataset
+    private Map<Object, Integer> initialClassLabels;
+    private MissingIndices missingIndices;
+    private int length;
+
+    private MappedObjectDataset(Store store, int[] order, int size, List<Object> labelTable) {
+        this.path = store.path;
+        this.store = store;
+        this.order = order;
+        this.size = size;
+        this.labelTable = labelTable;
+        this.length = store.length;
+        this.classMap = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Object label = get_class(i);
+            if (label instanceof Integer || label instanceof String) {
+                classMap.put(label, classMap.getOrDefault(label, 0) + 1);
+            }
+        }
+    }
+
+    /** Maps the store at path; the rows are in the order they were written. */
+    public static MappedObjectDataset open(String path) throws IOException {
+        Store store = new Store(path);
+        int[] order = new int[store.numRows];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        return new MappedObjectDataset(store, order, order.length, store.labelTable);
+    }
+
+    /** The source description the store was written with, or null if path is not a readable store. */
+    public static String source(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return Store.readFooter(channel).source;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** The path of the store file. */
+    public String path() {
+        return path;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int length() {
+        return getLength();
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public void setLength(int len) {
+        this.length = len;
+    }
+
+    @Override
+    public List<Object> getData() {
+        return _internal_data_list();
+    }
+
+    @Override
+    public void setData(List<?> newData) {
+        throw new UnsupportedOperationException("the series of a mapped store cannot be replaced; use shallow_clone()");
+    }
+
+    @Override
+    public MissingIndices getMissingIndices() {
+        return missingIndices;
+    }
+
+    @Override
+    public void setMissingIndices(MissingIndices mi) {
+        this.missingIndices = mi;
+    }
+
+    @Override
+    public Map<Integer, Object> invertLabelMap(Map<Object, Integer> originalToNew) {
+        Map<Integer, Object> newToOriginal = new HashMap<>();
+        for (Map.Entry<Object, Integer> entry : originalToNew.entrySet()) {
+            newToOriginal.put(entry.getValue(), entry.getKey());
+        }
+        return newToOriginal;
+    }
+
+    @Override
+    public void add(Object label, Object series, Integer index) {
+        throw new UnsupportedOperationException("series cannot be added to a mapped store; use shallow_clone()");
+    }
+
+    /** Drops row i from this dataset; the store itself is not changed. */
+    @Override
+    public void remove(int i) {
+        Object label = get_class(i);
+        if (classMap.containsKey(label)) {
+            classMap.put(label, classMap.get(label) - 1);
+            if (classMap.get(label) <= 0) {
+                classMap.remove(label);
+            }
+        }
+        System.arraycopy(order, i + 1, order, i, size - i - 1);
+        if (indices != null) {
+            System.arraycopy(indices, i + 1, indices, i, size - i - 1);
+        }
+        size--;
+    }
+
+    /** The series of row i: a double[] for univariate rows, a double[][] for multivariate ones. */
+    @Override
+    public Object get_series(int i) {
+        return store.cachedSeries(order[i]);
+    }
+
+    @Override
+    public Object get_class(int i) {
+        int row = order[i];
+        int code = store.labelCodes[row];
+        if (code >= 0) {
+            return labelTable.get(code);
+        }
+        return code == TARGET ? (Object) store.targets[row] : null;
+    }
+
+    @Override
+    public Integer get_index(int i) {
+        return indices != null ? indices[i] : store.indices[order[i]];
+    }
+
+    @Override
+    public int get_num_classes() {
+        return classMap.size();
+    }
+
+    @Override
+    public void set_indices(ArrayList<Integer> indices) {
+        if (indices.size() != size) {
+            throw new IllegalArgumentException("expected " + size + " indices, got " + indices.size());
+        }
+        this.indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.indices[i] = indices.get(i);
+        }
+    }
+
+    @Override
+    public int get_class_size(Object class_label) {
+        return classMap.getOrDefault(class_label, 0);
+    }
+
+    @Override
+    public Map<Object, Integer> get_class_map() {
+        return classMap;
+    }
+
+    @Override
+    public Object[] get_unique_classes() {
+        return classMap.keySet().toArray();
+    }
+
+    @Override
+    public Set<Object> get_unique_classes_as_set() {
+        return classMap.keySet();
+    }
+
+    @Override
+    public Map<Object, ListObjectDataset> split_classes() {
+        return shallow_clone().split_classes();
+    }
+
+    @Override
+    public double purity(String method) {
+        return Labels.of(method, _internal_class_list()).purity();
+    }
+
+    @Override
+    public List<Object> _internal_data_list() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int i) {
+                return get_series(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public List<Object> _internal_class_list() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int i) {
+                return get_class(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Object[] _internal_data_array() {
+        return _internal_data_list().toArray();
+    }
+
+    @Override
+    public ArrayList<Integer> _internal_indices_list() {
+        ArrayList<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(get_index(i));
+        }
+        return list;
+    }
+
+    @Override
+    public Object[] _internal_class_array() {
+        return _internal_class_list().toArray();
+    }
+
+    /** Relabels the classes as ListObjectDataset does, sharing the store: only the label table is remapped. */
+    @Override
+    public MappedObjectDataset reorder_class_labels(Map<Object, Integer> new_order) {
+        if (new_order == null) new_order = new HashMap<>();
+        int newLabel = 0;
+        for (int i = 0; i < size; i++) {
+            Object oldLabel = get_class(i);
+            if (!new_order.containsKey(oldLabel)) {
+                new_order.put(oldLabel, newLabel++);
+            }
+        }
+        List<Object> table = new ArrayList<>(labelTable.size());
+        for (Object label : labelTable) {
+            table.add(new_order.get(label));
+        }
+        MappedObjectDataset reordered = new MappedObjectDataset(store, Arrays.copyOf(order, size), size, table);
+        reordered.length = length;
+        reordered.indices = indices == null ? null : Arrays.copyOf(indices, size);
+        reordered.initialClassLabels = new_order;
+        return reordered;
+    }
+
+    @Override
+    public Map<Object, Integer> _get_initial_class_labels() {
+        return initialClassLabels;
+    }
+
+    @Override
+    public void shuffle() {
+        shuffle(System.nanoTime());
+    }
+
+    @Override
+    public void shuffle(long seed) {
+        Random rand = new Random(seed);
+        for (int i = size - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int row = order[i];
+            order[i] = order[j];
+            order[j] = row;
+            if (indices != null) {
+                int index = indices[i];
+                indices[i] = indices[j];
+                indices[j] = index;
+            }
+        }
+    }
+
+    /** Copies the rows into a new ListObjectDataset on the heap, as new arrays that the caller may modify. */
+    @Override
+    public ListObjectDataset shallow_clone() {
+        ListObjectDataset clone = new ListObjectDataset(size);
+        for (int i = 0; i < size; i++) {
+            clone.add(get_class(i), store.series(order[i]), get_index(i));
+        }
+        return clone;
+    }
+
+    @Override
+    public ListObjectDataset deep_clone() {
+        return shallow_clone(); // every series is already a fresh copy
+    }
+
+    @Override
+    public ListObjectDataset sample_n(int n_items, Random rand) {
+        return shallow_clone().sample_n(n_items, rand);
+    }
+
+    @Override
+    public boolean isNumeric(int i) {
+        return true;
+    }
+
+    @Override
+    public boolean isCategorical(int i) {
+        return false;
+    }
+
+    @Override
+    public boolean isBoolean(int i) {
+        return false;
+    }
+
+    @Override
+    public boolean isDate(int i) {
+        return false;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!Files.isReadable(Paths.get(path))) {
+            throw new FileNotFoundException("the training data store " + path + " of this model no longer exists");
+        }
+        store = new Store(path);
+    }
+
+    /**
+     * Writes a store row by row, so a dataset never has to be on the heap as a whole. The store is written to a
+     * temporary file that replaces path only when {@link #close} succeeds, so a failed conversion never leaves a
+     * partial store behind.
+     */
+    public static class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temp;
+        private final String source;
+        private final DataOutputStream out;
+        private final List<Object> labelTable = new ArrayList<>();
+        private final Map<Object, Integer> codeOf = new HashMap<>();
+        private int[] dims = new int[64];       // number of channels of each row; 0 for univariate rows
+        private int[] lengths = new int[64];    // length of every channel, row after row
+        private int[] labelCodes = new int[64];
+        private double[] targets = new double[64];
+        private int[] indices = new int[64];
+        private int numRows;
+        private int numChannels;
+        private long numValues;
+        private int length;
+        private boolean closed;
+
+        /** source describes what the store was converted from, so stale stores can be detected (see {@link MappedObjectDataset#source}). */
+        public Writer(String path, String source) throws IOException {
+            this.target = Paths.get(path).toAbsolutePath();
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.source = source;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /** Appends a row; series must be a double[] or a double[][], label an Integer, a String, a Double or null. */
+        public void add(Object label, Object series, int index) throws IOException {
+            if (numRows == indices.length) {
+                int capacity = 2 * numRows;
+                dims = Arrays.copyOf(dims, capacity);
+                labelCodes = Arrays.copyOf(labelCodes, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                indices = Arrays.copyOf(indices, capacity);
+            }
+            if (series instanceof double[]) {
+                dims[numRows] = 0;
+                addChannel((double[]) series);
+            } else if (series instanceof double[][]) {
+                double[][] channels = (double[][]) series;
+                dims[numRows] = channels.length;
+                for (double[] channel : channels) {
+                    addChannel(channel);
+                }
+            } else {
+                throw new IllegalArgumentException("only double[] and double[][] series can be stored, got "
+                        + (series == null ? "null" : series.getClass().getSimpleName()));
+            }
+
+            if (label == null) {
+                labelCodes[numRows] = NO_LABEL;
+            } else if (label instanceof Double) {
+                labelCodes[numRows] = TARGET;
+                targets[numRows] = (Double) label;
+            } else if (label instanceof Integer || label instanceof String) {
+                Integer code = codeOf.get(label);
+                if (code == null) {
+                    code = labelTable.size();
+                    labelTable.add(label);
+                    codeOf.put(label, code);
+                }
+                labelCodes[numRows] = code;
+            } else {
+                throw new IllegalArgumentException("unsupported label type " + label.getClass().getSimpleName());
+            }
+            indices[numRows] = index;
+            numRows++;
+        }
+
+        private void addChannel(double[] channel) throws IOException {
+            if (numChannels == lengths.length) {
+                lengths = Arrays.copyOf(lengths, 2 * numChannels);
+            }
+            lengths[numChannels++] = channel.length;
+            numValues += channel.length;
+            length = channel.length;
+            for (double value : channel) {
+                out.writeDouble(value);
+            }
+        }
+
+        public int size() {
+            return numRows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long footer = HEADER_BYTES + 8L * numValues;
+            out.writeUTF(source == null ? "" : source);
+            out.writeInt(numRows);
+            out.writeInt(numChannels);
+            out.writeInt(length);
+            for (int i = 0; i < numRows; i++) {
+                out.writeInt(dims[i]);
+            }
+            for (int c = 0; c < numChannels; c++) {
+                out.writeInt(lengths[c]);
+            }
+            for (int i = 0; i < numRows; i++) {
+                out.writeInt(indices[i]);
+                out.writeInt(labelCodes[i]);
+                out.writeDouble(targets[i]);
+            }
+            out.writeInt(labelTable.size());
+            for (Object label : labelTable) {
+                if (label instanceof Integer) {
+                    out.writeByte(0);
+                    out.writeInt((Integer) label);
+                } else {
+                    out.writeByte(1);
+                    out.writeUTF((String) label);
+                }
+            }
+            out.writeLong(footer);
+            out.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** The mapped series and the heap-side columns of one store file, shared by every dataset over it. */
+    private static final class Store {
+
+        final String path;
+        final String source;
+        final int numRows;
+        final int length;
+        final int[] dims;
+        final int[] firstChannel;   // row -> index of its first channel in channelLengths
+        final int[] channelLengths;
+        final long[] offsets;       // row -> byte position of its first value
+        final int[] indices;
+        final int[] labelCodes;
+        final double[] targets;
+        final List<Object> labelTable;
+        final DoubleBuffer[] segments;
+        final AtomicReferenceArray<DecodedRow> decoded; // slot row & (length - 1)
+        final AtomicLong decodedBytes = new AtomicLong();
+
+        private static final class DecodedRow {
+            final int row;
+            final Object series;
+            final long bytes;
+
+            DecodedRow(int row, Object series, long bytes) {
+                this.row = row;
+                this.series = series;
+                this.bytes = bytes;
+            }
+        }
+
+        private static final class Footer {
+            String source;
+            int numRows;
+            int numChannels;
+            int length;
+            int[] dims;
+            int[] channelLengths;
+            int[] indices;
+            int[] labelCodes;
+            double[] targets;
+            List<Object> labelTable;
+            long dataEnd;
+        }
+
+        Store(String path) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                Footer footer = readFooter(channel);
+                this.source = footer.source;
+                this.numRows = footer.numRows;
+                this.length = footer.length;
+                this.dims = footer.dims;
+                this.channelLengths = footer.channelLengths;
+                this.indices = footer.indices;
+                this.labelCodes = footer.labelCodes;
+                this.targets = footer.targets;
+                this.labelTable = Collections.unmodifiableList(footer.labelTable);
+
+                this.firstChannel = new int[numRows];
+                this.offsets = new long[numRows];
+                long offset = HEADER_BYTES;
+                int c = 0;
+                for (int i = 0; i < numRows; i++) {
+                    firstChannel[i] = c;
+                    offsets[i] = offset;
+                    for (int d = 0; d < Math.max(1, dims[i]); d++) {
+                        offset += 8L * channelLengths[c++];
+                    }
+                }
+
+                // segment s maps bytes [s * SEGMENT_BYTES, (s + 1) * SEGMENT_BYTES); doubles never straddle two
+                int numSegments = (int) ((footer.dataEnd + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+                this.segments = new DoubleBuffer[numSegments];
+                for (int s = 0; s < numSegments; s++) {
+                    long start = (long) s << SEGMENT_SHIFT;
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(SEGMENT_BYTES, footer.dataEnd - start));
+                    segments[s] = mapped.asDoubleBuffer();
+                }
+                this.decoded = new AtomicReferenceArray<>(Math.max(1, Integer.highestOneBit(
+                        Math.max(1, Math.min(numRows, MAX_DECODED_SLOTS) - 1)) << 1));
+            }
+        }
+
+        static Footer readFooter(FileChannel channel) throws IOException {
+            long fileSize = channel.size();
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(head, 0);
+            head.flip();
+            if (fileSize < HEADER_BYTES + 8 || head.getInt() != MAGIC || head.getInt() != VERSION) {
+                throw new IOException("not a dataset store (or written by another version)");
+            }
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            channel.read(tail, fileSize - 8);
+            tail.flip();
+            long position = tail.getLong();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    java.nio.channels.Channels.newInputStream(channel.position(position)), 1 << 16));
+            Footer footer = new Footer();
+            footer.dataEnd = position;
+            footer.source = in.readUTF();
+            footer.numRows = in.readInt();
+            footer.numChannels = in.readInt();
+            footer.length = in.readInt();
+            footer.dims = new int[footer.numRows];
+            for (int i = 0; i < footer.numRows; i++) {
+                footer.dims[i] = in.readInt();
+            }
+            footer.channelLengths = new int[footer.numChannels];
+            for (int c = 0; c < footer.numChannels; c++) {
+                footer.channelLengths[c] = in.readInt();
+            }
+            footer.indices = new int[footer.numRows];
+            footer.labelCodes = new int[footer.numRows];
+            footer.targets = new double[footer.numRows];
+            for (int i = 0; i < footer.numRows; i++) {
+                footer.indices[i] = in.readInt();
+                footer.labelCodes[i] = in.readInt();
+                footer.targets[i] = in.readDouble();
+            }
+            int numLabels = in.readInt();
+            footer.labelTable = new ArrayList<>(numLabels);
+            for (int k = 0; k < numLabels; k++) {
+                footer.labelTable.add(in.readByte() == 0 ? (Object) in.readInt() : in.readUTF());
+            }
+            return footer;
+        }
+
+        /**
+         * The series of row, from the decoded-row cache if it is there. Rows are added while the cache stays within
+         * AppContext.data_store_cache_mb, and a row replaces the one in its slot, as in TransformCache; the entries
+         * are immutable, so lookups need no locking.
+         */
+        Object cachedSeries(int row) {
+            long budget = (long) AppContext.data_store_cache_mb << 20;
+            if (budget <= 0) {
+                return series(row);
+            }
+            int slot = row & (decoded.length() - 1);
+            DecodedRow entry = decoded.get(slot);
+            if (entry != null && entry.row == row) {
+                return entry.series;
+            }
+
+            Object series = series(row);
+            long size = bytes(row);
+            long evicted = entry == null ? 0 : entry.bytes;
+            if (decodedBytes.get() - evicted + size <= budget) {
+                DecodedRow old = decoded.getAndSet(slot, new DecodedRow(row, series, size));
+                decodedBytes.addAndGet(size - (old == null ? 0 : old.bytes));
+            }
+            return series;
+        }
+
+        // the heap taken by the decoded arrays of row
+        private long bytes(int row) {
+            int c = firstChannel[row];
+            if (dims[row] == 0) {
+                return 16 + 8L * channelLengths[c];
+            }
+            long size = 16 + 8L * dims[row];
+            for (int d = 0; d < dims[row]; d++, c++) {
+                size += 16 + 8L * channelLengths[c];
+            }
+            return size;
+        }
+
+        /** A new copy of the series of row. */
+        Object series(int row) {
+            long position = offsets[row];
+            int c = firstChannel[row];
+            if (dims[row] == 0) {
+                double[] values = new double[channelLengths[c]];
+                read(position, values);
+                return values;
+            }
+            double[][] channels = new double[dims[row]][];
+            for (int d = 0; d < channels.length; d++, c++) {
+                channels[d] = new double[channelLengths[c]];
+                read(position, channels[d]);
+                position += 8L * channelLengths[c];
+            }
+            return channels;
+        }
+
+        // absolute bulk gets do not move the buffers' positions, so rows are read concurrently without locking
+        private void read(long position, double[] values) {
+            int done = 0;
+            while (done < values.length) {
+                int segment = (int) (position >>> SEGMENT_SHIFT);
+                int within = (int) ((position & (SEGMENT_BYTES - 1)) >>> 3);
+                int count = Math.min(values.length - done, segments[segment].capacity() - within);
+                segments[segment].get(within, values, done, count);
+                done += count;
+                position += 8L * count;
+            }
+        }
+    }
+}
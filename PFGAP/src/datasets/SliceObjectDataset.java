@@ -0,0 +1,345 @@
+package datasets;
+
+import java.util.*;
+
+import core.contracts.ObjectDataset;
+import imputation.MissingIndices;
+import purity.Labels;
+
+/**
+ * A view of some rows of a source dataset: a range [from, to) of an int[] of source row numbers.
+ *
+ * Tree nodes train on slices instead of copies. A tree holds one rows array (its bootstrap draws), and
+ * {@link #partition} reorders a node's range in place, stably by branch, so every child is again a contiguous
+ * range of the same array. Series and labels are never copied, and sibling slices cover disjoint ranges.
+ *
+ * get_index(i) is the source row number of row i, which is what tree nodes record as in-bag and out-of-bag indices.
+ *
+ * The mutators that only reorder, select or drop rows (shuffle, set_indices, remove) rewrite this slice's own range
+ * of the rows array and never touch the source. Series cannot be added or replaced through a view (add, setData);
+ * copy it with shallow_clone() first.
+ */
+public class SliceObjectDataset implements ObjectDataset {
+
+    private final ObjectDataset source;
+    private final int[] rows;
+    private final int from;
+    private int to;
+    private Map<Object, Integer> classMap; // built on first use, in order of first appearance
+    private MissingIndices missingIndices; // the source's until set
+    private int length = -1; // the source's until set
+
+    /** A slice over the given source rows (duplicates allowed); rows is owned by the slice from now on. */
+    public SliceObjectDataset(ObjectDataset source, int[] rows) {
+        this(source, rows, 0, rows.length);
+    }
+
+    private SliceObjectDataset(ObjectDataset source, int[] rows, int from, int to) {
+        this.source = source;
+        this.rows = rows;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Splits this slice into numBranches child slices, where branchOf[i] is the branch of row i. The range of this
+     * slice is reordered in place (stable within each branch), so the row order of this slice changes.
+     */
+    public SliceObjectDataset[] partition(int[] branchOf, int numBranches) {
+        int n = size();
+        int[] start = new int[numBranches + 1];
+        for (int i = 0; i < n; i++) {
+            start[branchOf[i] + 1]++;
+        }
+        for (int b = 0; b < numBranches; b++) {
+            start[b + 1] += start[b];
+        }
+
+        int[] original = Arrays.copyOfRange(rows, from, to);
+        int[] next = Arrays.copyOf(start, numBranches);
+        for (int i = 0; i < n; i++) {
+            rows[from + next[branchOf[i]]++] = original[i];
+        }
+
+        SliceObjectDataset[] children = new SliceObjectDataset[numBranches];
+        for (int b = 0; b < numBranches; b++) {
+            children[b] = new SliceObjectDataset(source, rows, from + start[b], from + start[b + 1]);
+            children[b].length = length;
+            children[b].missingIndices = missingIndices;
+        }
+        return children;
+    }
+
+    /** Positions (0..size()-1) of the rows of each class, with classes in order of first appearance. */
+    public Map<Object, int[]> class_positions() {
+        Map<Object, int[]> positions = new LinkedHashMap<>();
+        Map<Object, int[]> filled = new HashMap<>();
+        for (Map.Entry<Object, Integer> entry : get_class_map().entrySet()) {
+            positions.put(entry.getKey(), new int[entry.getValue()]);
+            filled.put(entry.getKey(), new int[1]);
+        }
+        for (int i = 0; i < size(); i++) {
+            Object label = get_class(i);
+            int[] p = positions.get(label);
+            if (p != null) {
+                p[filled.get(label)[0]++] = i;
+            }
+        }
+        return positions;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public int length() {
+        return getLength();
+    }
+
+    @Override
+    public int getLength() {
+        return length < 0 ? source.getLength() : length;
+    }
+
+    @Override
+    public void setLength(int len) {
+        this.length = len;
+    }
+
+    @Override
+    public List<Object> getData() {
+        return _internal_data_list();
+    }
+
+    @Override
+    public void setData(List<?> newData) {
+        throw new UnsupportedOperationException("a slice cannot replace the series of its source; use shallow_clone()");
+    }
+
+    @Override
+    public MissingIndices getMissingIndices() {
+        return missingIndices == null ? source.getMissingIndices() : missingIndices;
+    }
+
+    @Override
+    public void setMissingIndices(MissingIndices mi) {
+        this.missingIndices = mi;
+    }
+
+    @Override
+    public Map<Integer, Object> invertLabelMap(Map<Object, Integer> originalToNew) {
+        return source.invertLabelMap(originalToNew);
+    }
+
+    @Override
+    public void add(Object label, Object series, Integer index) {
+        throw new UnsupportedOperationException("a slice cannot add series to its source; use shallow_clone()");
+    }
+
+    /** Drops row i from this slice; the source is not changed. */
+    @Override
+    public void remove(int i) {
+        System.arraycopy(rows, from + i + 1, rows, from + i, size() - i - 1);
+        to--;
+        classMap = null;
+    }
+
+    @Override
+    public Object get_series(int i) {
+        return source.get_series(rows[from + i]);
+    }
+
+    @Override
+    public Object get_class(int i) {
+        return source.get_class(rows[from + i]);
+    }
+
+    @Override
+    public Integer get_index(int i) {
+        return rows[from + i];
+    }
+
+    @Override
+    public int get_num_classes() {
+        return get_class_map().size();
+    }
+
+    /** Makes row i of this slice the source row indices.get(i), as get_index(i) is the source row number. */
+    @Override
+    public void set_indices(ArrayList<Integer> indices) {
+        if (indices.size() != size()) {
+            throw new IllegalArgumentException("expected " + size() + " indices, got " + indices.size());
+        }
+        for (int i = 0; i < indices.size(); i++) {
+            rows[from + i] = indices.get(i);
+        }
+        classMap = null;
+    }
+
+    @Override
+    public int get_class_size(Object class_label) {
+        return get_class_map().getOrDefault(class_label, 0);
+    }
+
+    @Override
+    public Map<Object, Integer> get_class_map() {
+        if (classMap == null) {
+            Map<Object, Integer> map = new LinkedHashMap<>();
+            for (int i = 0; i < size(); i++) {
+                Object label = get_class(i);
+                // same rule as ListObjectDataset.add: only class labels are counted, not regression targets
+                if (label instanceof Integer || label instanceof String) {
+                    map.put(label, map.getOrDefault(label, 0) + 1);
+                }
+            }
+            classMap = map;
+        }
+        return classMap;
+    }
+
+    @Override
+    public Object[] get_unique_classes() {
+        return get_class_map().keySet().toArray();
+    }
+
+    @Override
+    public Set<Object> get_unique_classes_as_set() {
+        return get_class_map().keySet();
+    }
+
+    @Override
+    public Map<Object, ListObjectDataset> split_classes() {
+        Map<Object, ListObjectDataset> split = new LinkedHashMap<>();
+        for (Map.Entry<Object, int[]> entry : class_positions().entrySet()) {
+            ListObjectDataset subset = new ListObjectDataset(entry.getValue().length);
+            for (int i : entry.getValue()) {
+                subset.add(entry.getKey(), get_series(i), get_index(i));
+            }
+            split.put(entry.getKey(), subset);
+        }
+        return split;
+    }
+
+    @Override
+    public double purity(String method) {
+        return Labels.of(method, _internal_class_list()).purity();
+    }
+
+    @Override
+    public List<Object> _internal_data_list() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int i) {
+                return get_series(i);
+            }
+
+            @Override
+            public int size() {
+                return SliceObjectDataset.this.size();
+            }
+        };
+    }
+
+    @Override
+    public List<Object> _internal_class_list() {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int i) {
+                return get_class(i);
+            }
+
+            @Override
+            public int size() {
+                return SliceObjectDataset.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Object[] _internal_data_array() {
+        return _internal_data_list().toArray();
+    }
+
+    @Override
+    public ArrayList<Integer> _internal_indices_list() {
+        ArrayList<Integer> indices = new ArrayList<>(size());
+        for (int i = from; i < to; i++) {
+            indices.add(rows[i]);
+        }
+        return indices;
+    }
+
+    @Override
+    public Object[] _internal_class_array() {
+        return _internal_class_list().toArray();
+    }
+
+    @Override
+    public ObjectDataset reorder_class_labels(Map<Object, Integer> new_order) {
+        return shallow_clone().reorder_class_labels(new_order);
+    }
+
+    @Override
+    public Map<Object, Integer> _get_initial_class_labels() {
+        return source._get_initial_class_labels();
+    }
+
+    @Override
+    public void shuffle() {
+        shuffle(System.nanoTime());
+    }
+
+    @Override
+    public void shuffle(long seed) {
+        Random rand = new Random(seed);
+        for (int i = size() - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int row = rows[from + i];
+            rows[from + i] = rows[from + j];
+            rows[from + j] = row;
+        }
+        classMap = null; // classes are kept in order of first appearance
+    }
+
+    /** Copies the rows of this slice into a new ListObjectDataset, sharing the series. */
+    @Override
+    public ListObjectDataset shallow_clone() {
+        ListObjectDataset clone = new ListObjectDataset(size());
+        for (int i = 0; i < size(); i++) {
+            clone.add(get_class(i), get_series(i), get_index(i));
+        }
+        return clone;
+    }
+
+    @Override
+    public ListObjectDataset deep_clone() {
+        return shallow_clone().deep_clone();
+    }
+
+    @Override
+    public ListObjectDataset sample_n(int n_items, Random rand) {
+        return shallow_clone().sample_n(n_items, rand);
+    }
+
+    @Override
+    public boolean isNumeric(int i) {
+        return source.isNumeric(rows[from + i]);
+    }
+
+    @Override
+    public boolean isCategorical(int i) {
+        return source.isCategorical(rows[from + i]);
+    }
+
+    @Override
+    public boolean isBoolean(int i) {
+        return source.isBoolean(rows[from + i]);
+    }
+
+    @Override
+    public boolean isDate(int i) {
+        return source.isDate(rows[from + i]);
+    }
+}
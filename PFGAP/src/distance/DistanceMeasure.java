@@ -2,8 +2,6 @@ package distance;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 import core.AppContext;
@@ -15,7 +13,7 @@ import distance.interop.*;
 import distance.meta.*;
 import distance.multiTS.*;
 
-public class DistanceMeasure implements Serializable {
+public class DistanceMeasure implements Serializable, Cloneable {
 	
 	public final MEASURE distance_measure;
 
@@ -92,6 +90,18 @@ public class DistanceMeasure implements Serializable {
 		initialize(m, descriptor);
 	}
 	
+	/**
+	 * A measure of the same kind with its own copy of the parameters, sharing this measure's kernels
+	 * (which keep no state between calls), so its parameters can be drawn without affecting this one.
+	 */
+	public DistanceMeasure copy() {
+		try {
+			return (DistanceMeasure) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
 	public void initialize (MEASURE m, String... descriptor) throws Exception{
 		switch (m) {
 			case euclidean:
@@ -484,6 +494,10 @@ public class DistanceMeasure implements Serializable {
 		return this.distance(s, t, Double.POSITIVE_INFINITY);
 	}
 
+	/**
+	 * Distance between s and t, allowed to stop early once it provably exceeds bsf. In that case the
+	 * value returned is a lower bound that is strictly greater than bsf, never the exact distance.
+	 */
 	public double distance(Object s, Object t, double bsf) throws IOException, InterruptedException {
 		double distance = Double.POSITIVE_INFINITY;
 		
@@ -549,7 +563,8 @@ public class DistanceMeasure implements Serializable {
 			distance = manhattan.distance(s,t,bsf);
 			break;
 		case cosine:
-			distance = cosine.distance(s,t,bsf);
+			// the dot-product guard in Cosine is not a bound on the result, so it must never cut early
+			distance = cosine.distance(s,t,Double.POSITIVE_INFINITY);
 			break;
 		case shapeHoG1dDTW:
 			distance = shapeHoG1dDTW.distance(s,t,bsf,((double[]) s).length);
@@ -733,9 +748,6 @@ public class DistanceMeasure implements Serializable {
 	}
 	
 	
-	//just to reuse this data structure
-	List<Integer> closest_nodes = new ArrayList<Integer>();
-	
 	//public int find_closest_node(
 	//		double[] query,
 	//		double[][] exemplars,
@@ -746,9 +758,44 @@ public class DistanceMeasure implements Serializable {
 			Object[] exemplars,
 			boolean train,
 			String... dfile) throws Exception{
-		closest_nodes.clear();
+		return find_closest_node(query, exemplars, null, train, dfile);
+	}
+
+	/**
+	 * Lower bounds over these exemplars for the DTW family, or null if this measure has none.
+	 * Splitters build them once per set of exemplars and pass them to find_closest_node.
+	 */
+	public DTWLowerBounds lowerBounds(Object[] exemplars) {
+		switch (this.distance_measure) {
+		case dtw:
+		case shifazDTW:
+			return DTWLowerBounds.build(exemplars, -1, false);
+		case dtwcv:
+		case shifazDTWCV:
+			return DTWLowerBounds.build(exemplars, this.windowSizeDTW, false);
+		case ddtw:
+		case shifazDDTW:
+			return DTWLowerBounds.build(exemplars, -1, true);
+		case ddtwcv:
+		case shifazDDTWCV:
+			return DTWLowerBounds.build(exemplars, this.windowSizeDDTW, true);
+		default:
+			return null;
+		}
+	}
+
+	public int find_closest_node(
+			Object query,
+			Object[] exemplars,
+			DTWLowerBounds bounds,
+			boolean train,
+			String... dfile) throws Exception{
+		// ties are tracked per call, so concurrent queries can share this measure
+		int[] closest_nodes = new int[exemplars.length];
+		int num_closest = 0;
 		double dist = Double.POSITIVE_INFINITY;
 		double bsf = Double.POSITIVE_INFINITY;		
+		DTWLowerBounds.Query boundQuery = bounds == null ? null : bounds.forQuery(query);
 
 		for (int i = 0; i < exemplars.length; i++) {
 			//double[] exemplar = exemplars[i];	//TODO indices must match
@@ -757,24 +804,29 @@ public class DistanceMeasure implements Serializable {
 			if (AppContext.config_skip_distance_when_exemplar_matches_query && exemplar == query) {
 				return i;
 			}
+
+			if (boundQuery != null && bounds.canPrune(boundQuery, i, bsf)) {
+				continue; // provably farther than the best so far
+			}
 							
-			dist = this.distance(query, exemplar);
+			// kernels only abandon when they exceed bsf strictly, so ties are still found for the random pick below
+			dist = this.distance(query, exemplar, bsf);
 			
 			if (dist < bsf) {
 				bsf = dist;
-				closest_nodes.clear();
-				closest_nodes.add(i);
+				num_closest = 0;
+				closest_nodes[num_closest++] = i;
 			}else if (dist == bsf) {
 //				if (distance == min_distance) {
 //					System.out.println("min distances are same " + distance + ":" + min_distance);
 //				}
 				bsf = dist;
-				closest_nodes.add(i);
+				closest_nodes[num_closest++] = i;
 			}
 		}
 		
-		int r = AppContext.getRand().nextInt(closest_nodes.size());
-		return closest_nodes.get(r);
+		int r = AppContext.getRand().nextInt(num_closest);
+		return closest_nodes[r];
 	}
 	
 	
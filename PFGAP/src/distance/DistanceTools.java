@@ -107,6 +107,20 @@ public class DistanceTools {
 			return (a <= b) ? ((a <= c) ? a : c) : (b <= c) ? b : c;
 		}
 
+		/**
+		 * Early-abandon threshold for the next dimension of a distance that averages dims per-dimension
+		 * distances and must beat bsf, once spent has been accumulated by the other dimensions.
+		 * A small relative slack keeps rounding from abandoning an exact tie; a negative budget means the
+		 * average already exceeds bsf.
+		 */
+		public static double dimensionBudget(double bsf, int dims, double spent) {
+			if (bsf == Double.POSITIVE_INFINITY) {
+				return bsf;
+			}
+			double total = bsf * dims;
+			return total - spent + 1e-9 * Math.abs(total);
+		}
+
 		public static int ArgMin3(final double a, final double b, final double c) {
 			return (a <= b) ? ((a <= c) ? 0 : 2) : (b <= c) ? 1 : 2;
 		}
@@ -0,0 +1,83 @@
+package distance;
+
+/**
+ * Working memory of the distance kernels, one instance per thread, so a distance call allocates nothing once its
+ * thread has seen series of that length. The buffers only grow, and they grow by size class (the next power of two
+ * of the requested length), so a run of slightly longer series does not reallocate on every call.
+ *
+ * A kernel takes what it needs at the start of a call and must not call another kernel that uses the same buffers
+ * before it is done with them. Buffers are handed out as they were left by the previous call on the thread: a
+ * kernel that reads cells it has not written in the current call must clear them itself.
+ */
+public final class Scratch {
+
+	private static final ThreadLocal<Scratch> LOCAL = ThreadLocal.withInitial(Scratch::new);
+
+	private double[] rowA = new double[0];
+	private double[] rowB = new double[0];
+	private double[] rowC = new double[0];
+	private int[] intRowA = new int[0];
+	private int[] intRowB = new int[0];
+	private byte[] directions = new byte[0];
+
+	private Scratch() {
+	}
+
+	/** The scratch space of the calling thread. */
+	public static Scratch get() {
+		return LOCAL.get();
+	}
+
+	/** A row of at least length doubles (the first of the two rows of a DP). */
+	public double[] rowA(int length) {
+		if (rowA.length < length) {
+			rowA = new double[sizeClass(length)];
+		}
+		return rowA;
+	}
+
+	/** A second row of at least length doubles, distinct from {@link #rowA}. */
+	public double[] rowB(int length) {
+		if (rowB.length < length) {
+			rowB = new double[sizeClass(length)];
+		}
+		return rowB;
+	}
+
+	/** A third row of at least length doubles, distinct from {@link #rowA} and {@link #rowB}. */
+	public double[] rowC(int length) {
+		if (rowC.length < length) {
+			rowC = new double[sizeClass(length)];
+		}
+		return rowC;
+	}
+
+	/** A row of at least length ints (the first of the two rows of an integer DP). */
+	public int[] intRowA(int length) {
+		if (intRowA.length < length) {
+			intRowA = new int[sizeClass(length)];
+		}
+		return intRowA;
+	}
+
+	/** A second row of at least length ints, distinct from {@link #intRowA}. */
+	public int[] intRowB(int length) {
+		if (intRowB.length < length) {
+			intRowB = new int[sizeClass(length)];
+		}
+		return intRowB;
+	}
+
+	/** At least length bytes, for the step directions of an alignment path. */
+	public byte[] directions(int length) {
+		if (directions.length < length) {
+			directions = new byte[sizeClass(length)];
+		}
+		return directions;
+	}
+
+	private static int sizeClass(int length) {
+		int size = Integer.highestOneBit(Math.max(1, length));
+		return size == length || size == 1 << 30 ? length : size << 1;
+	}
+}
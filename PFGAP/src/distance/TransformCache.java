@@ -0,0 +1,136 @@
+package distance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import core.AppContext;
+import distance.elastic.DDTW;
+import distance.elastic.SBD;
+import transformation.FirstOrderDifference;
+import transformation.HistogramOfGradients;
+import transformation.MultivariateHistogramOfGradients;
+
+/**
+ * The derived representations (derivatives, differences, histograms of gradients, SBD spectra) that DDTW, WDDTW,
+ * ShapeHoG, SBD and their multivariate variants compare, computed once per series instead of once per distance call.
+ *
+ * Entries are keyed by the identity of the series array, so a series that is compared many times (a training row
+ * across candidate splits, an exemplar across rows) is transformed once. The table is direct-mapped with a fixed
+ * number of slots, and entries are only added while the cached values stay within AppContext.transform_cache_mb;
+ * a colliding series replaces the entry in its slot. Entries are immutable, so lookups need no locking.
+ *
+ * Series must not change while they are cached. The forest clears the cache whenever it starts training or
+ * routing a dataset, since the imputers update series in place between those calls.
+ * The returned arrays are shared and must not be modified.
+ *
+ * An entry keeps its series alive as well as the transform, so both count against the budget. The rows of a
+ * MappedObjectDataset keep their identity while they stay in the store's decoded-row cache, so they hit here too.
+ */
+public final class TransformCache {
+
+	public enum Transform { DERIVATIVE, HOG, DIFFERENCE_2D, HOG_2D, SBD_SPECTRUM }
+
+	private static final int SLOTS = 1 << 16;
+
+	private static final class Entry {
+		final Object series;
+		final Transform transform;
+		final Object value;
+		final long bytes;
+
+		Entry(Object series, Transform transform, Object value, long bytes) {
+			this.series = series;
+			this.transform = transform;
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(SLOTS);
+	private static final AtomicLong bytes = new AtomicLong();
+
+	private TransformCache() {
+	}
+
+	/** The DDTW derivative of series (as DDTW.getDeriv computes it). */
+	public static double[] derivative(double[] series) {
+		return (double[]) get(series, Transform.DERIVATIVE, () -> {
+			double[] deriv = new double[series.length];
+			DDTW.getDeriv(deriv, series);
+			return deriv;
+		});
+	}
+
+	/** The histogram of gradients of the first-order difference of series, as ShapeHoG1dDTW compares it. */
+	public static double[] hog(double[] series) {
+		return (double[]) get(series, Transform.HOG,
+				() -> HistogramOfGradients.computeHistogram(FirstOrderDifference.computeFirstOrderDifference(series)));
+	}
+
+	/** The first-order difference of every dimension of series. */
+	public static double[][] difference(double[][] series) {
+		return (double[][]) get(series, Transform.DIFFERENCE_2D,
+				() -> FirstOrderDifference.computeFirstOrderDifference(series));
+	}
+
+	/** The multivariate histogram of gradients of the first-order difference of series, as ShapeHoGDTW compares it. */
+	public static double[] hog(double[][] series) {
+		return (double[]) get(series, Transform.HOG_2D, () -> MultivariateHistogramOfGradients.computeHistogram(
+				FirstOrderDifference.computeFirstOrderDifference(series),
+				MultivariateHistogramOfGradients.Strategy.CONCATENATE_GRADIENTS));
+	}
+
+	/** The spectrum of the z-normalised series that SBD correlates (as SBD.spectrum computes it). */
+	public static double[] sbdSpectrum(double[] series) {
+		return (double[]) get(series, Transform.SBD_SPECTRUM, () -> SBD.spectrum(series));
+	}
+
+	/** Drops every entry; call this before the cached series may change. */
+	public static void clear() {
+		for (int i = 0; i < SLOTS; i++) {
+			Entry old = table.getAndSet(i, null);
+			if (old != null) {
+				bytes.addAndGet(-old.bytes);
+			}
+		}
+	}
+
+	private static Object get(Object series, Transform transform, Supplier<Object> compute) {
+		long budget = (long) AppContext.transform_cache_mb << 20;
+		if (budget <= 0) {
+			return compute.get();
+		}
+		int slot = slot(series, transform);
+		Entry entry = table.get(slot);
+		if (entry != null && entry.series == series && entry.transform == transform) {
+			return entry.value;
+		}
+
+		Object value = compute.get();
+		long size = sizeOf(series) + sizeOf(value);
+		long evicted = entry == null ? 0 : entry.bytes;
+		if (bytes.get() - evicted + size <= budget) {
+			Entry old = table.getAndSet(slot, new Entry(series, transform, value, size));
+			bytes.addAndGet(size - (old == null ? 0 : old.bytes));
+		}
+		return value;
+	}
+
+	private static int slot(Object series, Transform transform) {
+		int h = System.identityHashCode(series) * 31 + transform.ordinal();
+		h ^= h >>> 16;
+		return h & (SLOTS - 1);
+	}
+
+	private static long sizeOf(Object value) {
+		if (value instanceof double[]) {
+			return 16 + 8L * ((double[]) value).length;
+		}
+		long size = 16;
+		for (double[] row : (double[][]) value) {
+			size += 16 + 8L * row.length;
+		}
+		return size;
+	}
+}
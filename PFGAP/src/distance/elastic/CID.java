@@ -1,5 +1,7 @@
 package distance.elastic;
 
+import distance.LockStep;
+
 import java.io.Serializable;
 
 public class CID implements Serializable {
@@ -13,12 +15,7 @@ public class CID implements Serializable {
             throw new IllegalArgumentException("Series must be of equal length.");
         }
 
-        double ed = 0.0;
-        for (int i = 0; i < series1.length; i++) {
-            double diff = series1[i] - series2[i];
-            ed += diff * diff;
-        }
-        ed = Math.sqrt(ed);
+        double ed = Math.sqrt(LockStep.squaredEuclidean(series1, series2, Double.POSITIVE_INFINITY));
 
         double c1 = complexity(series1);
         double c2 = complexity(series2);
@@ -28,11 +25,6 @@ public class CID implements Serializable {
     }
 
     private double complexity(double[] series) {
-        double sum = 0.0;
-        for (int i = 1; i < series.length; i++) {
-            double diff = series[i] - series[i - 1];
-            sum += diff * diff;
-        }
-        return Math.sqrt(sum);
+        return Math.sqrt(LockStep.squaredSuccessiveDifferences(series));
     }
 }
\ No newline at end of file
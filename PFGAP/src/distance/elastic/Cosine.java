@@ -1,5 +1,7 @@
 package distance.elastic;
 
+import distance.LockStep;
+
 import java.io.Serializable;
 
 public class Cosine implements Serializable {
@@ -7,21 +9,14 @@ public class Cosine implements Serializable {
 
     }
 
-    private synchronized double dotProd(double[] s, double[] t, double bsf) {
-
-        int i = 0;
-        double total = 0;
+    private double dotProd(double[] s, double[] t, double bsf) {
 
         //assume s.length == t.length for this implementation
         //TODO note <=, if bsf = 0, < will cause problems when early abandoning
-        for (i = 0; i < s.length & total <= bsf; i++){
-            total += s[i] * t[i];
-        }
-
-        return total;
+        return LockStep.dot(s, t, bsf);
     }
 
-    public synchronized double distance(Object S, Object T, double bsf){
+    public double distance(Object S, Object T, double bsf){
 
         double[] s = (double[]) S;
         double[] t = (double[]) T;
@@ -32,7 +27,7 @@ public class Cosine implements Serializable {
         return numer/denom;
     }
 
-    public synchronized double distance(Object S, Object T){ //for knn imputation
+    public double distance(Object S, Object T){ //for knn imputation
 
         double[] s = (double[]) S;
         double[] t = (double[]) T;
@@ -2,10 +2,12 @@ package distance.elastic;
 
 import core.AppContext;
 import core.contracts.ObjectDataset;
+import distance.Scratch;
 
 import static java.lang.Math.sqrt;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
 //import core.contracts.Dataset;
@@ -25,7 +27,7 @@ public class DTW implements Serializable {
 	
 	//A fast DTW implemented by Geoff Webb
 	//public synchronized double distance(double[] series1, double[] series2,double bsf, int windowSize) {
-	public synchronized double distance(Object Series1, Object Series2, double bsf, int windowSize) {
+	public double distance(Object Series1, Object Series2, double bsf, int windowSize) {
 
 		double[] series1 = (double[]) Series1;
 		double[] series2 = (double[]) Series2;
@@ -39,20 +41,21 @@ public class DTW implements Serializable {
 
 		int maxLength = Math.max(length1, length2);
 		
-		double[] prevRow = new double[maxLength];
-		double[] currentRow = new double[maxLength];
-		
-		if (prevRow == null || prevRow.length < maxLength) {
-			prevRow = new double[maxLength];
-		}
-		
-		if (currentRow == null || currentRow.length < maxLength) {
-			currentRow = new double[maxLength];
-		}
+		// the thread's scratch rows, cleared as fresh arrays would be: narrow windows and short series make
+		// the DP read cells it never writes, which must then be 0
+		Scratch scratch = Scratch.get();
+		double[] prevRow = scratch.rowA(maxLength);
+		double[] currentRow = scratch.rowB(maxLength);
+		Arrays.fill(prevRow, 0, maxLength, 0.0);
+		Arrays.fill(currentRow, 0, maxLength, 0.0);
 
 		int i, j;
 		double prevVal;
 		double thisSeries1Val = series1[0];
+
+		// a zero window, or one too narrow to reach the end of series2, makes the rows read cells that were never
+		// written, and then the row minimum no longer bounds the result
+		boolean canAbandon = windowSize > 0 && length1 <= length2 + windowSize;
 		
 		// initialising the first row - do this in prevRow so as to save swapping rows before next row
 		prevVal = prevRow[0] = squaredDistance(thisSeries1Val, series2[0]);
@@ -91,9 +94,12 @@ public class DTW implements Serializable {
 			
 			thisSeries1Val = series1[i];
 
+			// every warping path crosses row i, so the cheapest cell of the row bounds the final distance from below
+			double rowMin = Double.POSITIVE_INFINITY;
+
 			if (i - windowSize < 1) {
 				jStart = 1;
-				currentRow[0] = prevRow[0] + squaredDistance(thisSeries1Val, series2[0]);
+				rowMin = currentRow[0] = prevRow[0] + squaredDistance(thisSeries1Val, series2[0]);
 			}
 			else {
 				jStart = i - windowSize;
@@ -103,9 +109,11 @@ public class DTW implements Serializable {
 				// If jStart is the start of the window, [i][jStart-1] is outside the window.
 				// Otherwise jStart-1 must be 0 and the path through [i][0] can never be less than the path directly from [i-1][0]
 				prevVal = currentRow[jStart] = Math.min(prevRow[jStart - 1], prevRow[jStart])+ squaredDistance(thisSeries1Val, series2[jStart]);
+				if (prevVal < rowMin) rowMin = prevVal;
 				for (j = jStart+1; j < jStop; j++) {
 					prevVal = currentRow[j] = min(prevRow[j - 1], prevVal, prevRow[j])
 									+ squaredDistance(thisSeries1Val, series2[j]);
+					if (prevVal < rowMin) rowMin = prevVal;
 				}
 				
 				if (i + windowSize >= length2) {
@@ -115,6 +123,12 @@ public class DTW implements Serializable {
 				else {
 					currentRow[jStop] = Math.min(prevRow[jStop - 1], prevVal) + squaredDistance(thisSeries1Val, series2[jStop]);
 				}
+				if (currentRow[jStop] < rowMin) rowMin = currentRow[jStop];
+			}
+
+			// early abandon: the returned lower bound is strictly greater than bsf, so ties are still computed exactly
+			if (canAbandon && sqrt(rowMin) > bsf) {
+				return sqrt(rowMin);
 			}
 		}
 		
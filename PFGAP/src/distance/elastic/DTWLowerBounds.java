@@ -0,0 +1,181 @@
+package distance.elastic;
+
+import distance.TransformCache;
+
+/**
+ * Lower bounds for DTW and DDTW against a fixed set of exemplars, used to skip exemplars that cannot be
+ * the nearest one before the full DTW is run.
+ *
+ * The envelopes of the exemplars are computed once, when a split is created, and each query is then checked
+ * with a cascade of increasingly expensive bounds: LB_Kim (first and last points), LB_Keogh of the query
+ * against the exemplar envelope, and LB_Keogh of the exemplar against the query envelope.
+ * All bounds are on the squared DTW cost and assume equal-length series and a Sakoe-Chiba window of at least 1,
+ * which is when {@link DTW} computes a proper banded DTW.
+ */
+public class DTWLowerBounds {
+
+	// keeps rounding in the bound sums from pruning an exemplar whose distance exactly ties the best so far
+	private static final double TIE_SLACK = 1e-9;
+
+	private final int window;
+	private final boolean derivative;
+	private final double[][] series;
+	private final double[][] upper;
+	private final double[][] lower;
+
+	private DTWLowerBounds(int window, boolean derivative, double[][] series) {
+		this.window = window;
+		this.derivative = derivative;
+		this.series = series;
+		this.upper = new double[series.length][];
+		this.lower = new double[series.length][];
+		for (int e = 0; e < series.length; e++) {
+			upper[e] = new double[series[e].length];
+			lower[e] = new double[series[e].length];
+			envelope(series[e], window, upper[e], lower[e]);
+		}
+	}
+
+	/**
+	 * Bounds for the given exemplars, or null if they do not meet the assumptions of the bounds
+	 * (not all double[] of one length, or a zero window). A window of -1 means no window.
+	 */
+	public static DTWLowerBounds build(Object[] exemplars, int window, boolean derivative) {
+		if (exemplars.length == 0 || !(exemplars[0] instanceof double[])) {
+			return null;
+		}
+		int length = ((double[]) exemplars[0]).length;
+		if (window == -1 || window > length) {
+			window = length;
+		}
+		if (window < 1 || length < 1) {
+			return null;
+		}
+		double[][] series = new double[exemplars.length][];
+		for (int e = 0; e < exemplars.length; e++) {
+			if (!(exemplars[e] instanceof double[]) || ((double[]) exemplars[e]).length != length) {
+				return null;
+			}
+			series[e] = transform((double[]) exemplars[e], derivative);
+		}
+		return new DTWLowerBounds(window, derivative, series);
+	}
+
+	/** Prepares a query for repeated checks, or returns null if its length does not match the exemplars. */
+	public Query forQuery(Object query) {
+		if (!(query instanceof double[]) || ((double[]) query).length != series[0].length) {
+			return null;
+		}
+		return new Query(transform((double[]) query, derivative));
+	}
+
+	/**
+	 * True if the DTW distance (the square root of the cost, as returned by {@link DTW#distance}) between the query
+	 * and exemplar e is provably greater than bsf.
+	 */
+	public boolean canPrune(Query query, int e, double bsf) {
+		if (bsf == Double.POSITIVE_INFINITY) {
+			return false;
+		}
+		double limit = bsf * bsf * (1 + TIE_SLACK);
+		double[] q = query.values;
+		double[] c = series[e];
+
+		if (lbKim(q, c) > limit) {
+			return true;
+		}
+		if (lbKeogh(q, upper[e], lower[e], limit) > limit) {
+			return true;
+		}
+		return lbKeogh(c, query.upper(), query.lower(), limit) > limit;
+	}
+
+	/** Squared cost of the first and last cells, which every warping path contains. */
+	static double lbKim(double[] q, double[] c) {
+		int last = q.length - 1;
+		double first = (q[0] - c[0]) * (q[0] - c[0]);
+		if (last == 0) {
+			return first;
+		}
+		return first + (q[last] - c[last]) * (q[last] - c[last]);
+	}
+
+	/**
+	 * Squared distance from q to the envelope [lower, upper], abandoned as soon as it exceeds limit.
+	 */
+	static double lbKeogh(double[] q, double[] upper, double[] lower, double limit) {
+		double sum = 0;
+		for (int i = 0; i < q.length && sum <= limit; i++) {
+			if (q[i] > upper[i]) {
+				sum += (q[i] - upper[i]) * (q[i] - upper[i]);
+			} else if (q[i] < lower[i]) {
+				sum += (q[i] - lower[i]) * (q[i] - lower[i]);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Running max and min of series over [i - window, i + window], computed with monotone deques in O(n) (Lemire).
+	 */
+	static void envelope(double[] series, int window, double[] upper, double[] lower) {
+		int n = series.length;
+		int[] maxQueue = new int[n];
+		int[] minQueue = new int[n];
+		int maxHead = 0, maxTail = 0, minHead = 0, minTail = 0;
+
+		for (int j = 0; j < n + window; j++) {
+			// admit series[j] into both deques
+			if (j < n) {
+				while (maxTail > maxHead && series[maxQueue[maxTail - 1]] <= series[j]) maxTail--;
+				maxQueue[maxTail++] = j;
+				while (minTail > minHead && series[minQueue[minTail - 1]] >= series[j]) minTail--;
+				minQueue[minTail++] = j;
+			}
+			// the window of position i = j - window is now complete
+			int i = j - window;
+			if (i >= 0) {
+				while (maxQueue[maxHead] < i - window) maxHead++;
+				while (minQueue[minHead] < i - window) minHead++;
+				upper[i] = series[maxQueue[maxHead]];
+				lower[i] = series[minQueue[minHead]];
+			}
+		}
+	}
+
+	private static double[] transform(double[] series, boolean derivative) {
+		if (!derivative) {
+			return series;
+		}
+		return series.length > 1 ? TransformCache.derivative(series) : new double[series.length];
+	}
+
+	/** A query series (differenced for DDTW) with its envelope computed on first use. */
+	public class Query {
+		private final double[] values;
+		private double[] upper;
+		private double[] lower;
+
+		private Query(double[] values) {
+			this.values = values;
+		}
+
+		private double[] upper() {
+			ensureEnvelope();
+			return upper;
+		}
+
+		private double[] lower() {
+			ensureEnvelope();
+			return lower;
+		}
+
+		private void ensureEnvelope() {
+			if (upper == null) {
+				upper = new double[values.length];
+				lower = new double[values.length];
+				envelope(values, window, upper, lower);
+			}
+		}
+	}
+}
@@ -1,13 +1,23 @@
 package distance.elastic;
 
+import distance.Scratch;
 import util.Pair;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class DTWWithPath implements Serializable {
 
+    // the step into a cell of an alignment path, backwards: from (i-1, j-1), (i-1, j) or (i, j-1), from (0, 0)
+    // for the start and for cells the DP never reached, or nowhere (the path stops)
+    private static final byte STEP_ORIGIN = 0;
+    private static final byte STEP_DIAGONAL = 1;
+    private static final byte STEP_UP = 2;
+    private static final byte STEP_LEFT = 3;
+    private static final byte STEP_END = 4;
+
     public DTWWithPath() {}
 
     public double distance(double[] series1, double[] series2, int windowSize) {
@@ -25,53 +35,72 @@ public class DTWWithPath implements Serializable {
         int m = s2.length;
         if (windowSize == -1) windowSize = Math.max(n, m);
 
-        double[][] cost = new double[n][m];
-        int[][][] backtrack = trackPath ? new int[n][m][2] : null;
+        // two rows of costs, cleared just outside each row's window where the full matrix read zeros, and the step
+        // into every cell as one byte
+        Scratch scratch = Scratch.get();
+        double[] prev = scratch.rowA(m);
+        double[] cur = scratch.rowB(m);
+        byte[] steps = trackPath ? scratch.directions(n * m) : null;
 
+        int jStart = 0;
+        int jEnd = 0;
         for (int i = 0; i < n; i++) {
-            int jStart = Math.max(0, i - windowSize);
-            int jEnd = Math.min(m, i + windowSize + 1);
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
+            jStart = Math.max(0, i - windowSize);
+            jEnd = Math.min(m, i + windowSize + 1);
+            if (jStart > 0 && jStart - 1 < m) cur[jStart - 1] = 0.0;
+
             for (int j = jStart; j < jEnd; j++) {
                 double dist = squaredDistance(s1[i], s2[j]);
                 if (i == 0 && j == 0) {
-                    cost[i][j] = dist;
+                    cur[j] = dist;
+                    if (trackPath) steps[0] = STEP_ORIGIN;
                 } else {
                     double minPrev = Double.POSITIVE_INFINITY;
-                    int pi = -1, pj = -1;
-                    if (i > 0 && j > 0 && cost[i - 1][j - 1] < minPrev) {
-                        minPrev = cost[i - 1][j - 1];
-                        pi = i - 1; pj = j - 1;
+                    byte step = STEP_END;
+                    if (i > 0 && j > 0 && prev[j - 1] < minPrev) {
+                        minPrev = prev[j - 1];
+                        step = STEP_DIAGONAL;
                     }
-                    if (i > 0 && cost[i - 1][j] < minPrev) {
-                        minPrev = cost[i - 1][j];
-                        pi = i - 1; pj = j;
+                    if (i > 0 && prev[j] < minPrev) {
+                        minPrev = prev[j];
+                        step = STEP_UP;
                     }
-                    if (j > 0 && cost[i][j - 1] < minPrev) {
-                        minPrev = cost[i][j - 1];
-                        pi = i; pj = j - 1;
-                    }
-                    cost[i][j] = dist + minPrev;
-                    if (trackPath) {
-                        backtrack[i][j][0] = pi;
-                        backtrack[i][j][1] = pj;
+                    if (j > 0 && cur[j - 1] < minPrev) {
+                        minPrev = cur[j - 1];
+                        step = STEP_LEFT;
                     }
+                    cur[j] = dist + minPrev;
+                    if (trackPath) steps[i * m + j] = step;
                 }
             }
+            if (jEnd < m) cur[jEnd] = 0.0;
         }
 
         if (trackPath && pathOut != null) {
+            // a cell outside the window was never reached by the DP and leads to (0, 0)
             int i = n - 1, j = m - 1;
             while (i >= 0 && j >= 0) {
-                pathOut.add(0, new Pair<>(i, j));
-                int ni = backtrack[i][j][0];
-                int nj = backtrack[i][j][1];
-                if (ni == i && nj == j) break;
-                i = ni;
-                j = nj;
+                pathOut.add(new Pair<>(i, j));
+                byte step = Math.abs(i - j) <= windowSize ? steps[i * m + j] : STEP_ORIGIN;
+                if (step == STEP_END) break;
+                if (step == STEP_ORIGIN) {
+                    if (i == 0 && j == 0) break;
+                    i = 0;
+                    j = 0;
+                } else {
+                    if (step != STEP_LEFT) i--;
+                    if (step != STEP_UP) j--;
+                }
             }
+            Collections.reverse(pathOut);
         }
 
-        return Math.sqrt(cost[n - 1][m - 1]);
+        // the last cell is 0 when the window does not reach it
+        return Math.sqrt(m - 1 >= jStart && m - 1 < jEnd ? cur[m - 1] : 0.0);
     }
 
     private double squaredDistance(double a, double b) {
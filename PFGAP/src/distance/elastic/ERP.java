@@ -18,10 +18,8 @@ public class ERP implements Serializable {
 		
 	}
 	
-	double[] curr, prev;
-
 	//public synchronized double distance(double[] first, double[] second, double bsf, int windowSize, double gValue) {
-	public synchronized double distance(Object First, Object Second, double bsf, int windowSize, double gValue) {
+	public double distance(Object First, Object Second, double bsf, int windowSize, double gValue) {
 		// base case - we're assuming class val is last. If this is
 		// true, this method is fine,
 		// if not, we'll default to the DTW class
@@ -31,17 +29,8 @@ public class ERP implements Serializable {
 		int m = first.length;
 		int n = second.length;
 
-		if (curr == null || curr.length < m) {
-			curr = new double[m];
-			prev = new double[m];
-		} else {
-			// FPH: init to 0 just in case, didn't check if
-			// important
-			for (int i = 0; i < curr.length; i++) {
-				curr[i] = 0.0;
-				prev[i] = 0.0;
-			}
-		}
+		double[] curr = new double[m];
+		double[] prev = new double[m];
 
 		// size of edit distance band
 		// bandsize is the maximum allowed distance to the diagonal
@@ -67,6 +56,7 @@ public class ERP implements Serializable {
 			if (r > (m - 1)) {
 				r = (m - 1);
 			}
+			double rowMin = Double.POSITIVE_INFINITY;
 
 			for (int j = l; j <= r; j++) {
 				if (Math.abs(i - j) <= band) {
@@ -114,12 +104,18 @@ public class ERP implements Serializable {
 					}
 
 					curr[j] = cost;
+					if (cost < rowMin) rowMin = cost;
 					// steps[i][j] = step;
 				} else {
 					curr[j] = Double.POSITIVE_INFINITY; // outside
 									    // band
 				}
 			}
+
+			// every alignment passes through row i with nonnegative costs, so the row minimum bounds the result
+			if (Math.sqrt(rowMin) > bsf) {
+				return Math.sqrt(rowMin);
+			}
 		}
 
 		return Math.sqrt(curr[m - 1]);	//TODO do we need sqrt here
@@ -1,5 +1,7 @@
 package distance.elastic;
 
+import distance.LockStep;
+
 import java.io.Serializable;
 
 public class Euclidean implements Serializable {
@@ -8,19 +10,14 @@ public class Euclidean implements Serializable {
 	}	
 		
 	//public synchronized double distance(double[] s, double[] t, double bsf){
-	public synchronized double distance(Object S, Object T, double bsf){
+	public double distance(Object S, Object T, double bsf){
 
 		double[] s = (double[]) S;
 		double[] t = (double[]) T;
 
-		int i = 0;
-		double total = 0;
-
 		//assume s.length == t.length for this implementation
 		//TODO note <=, if bsf = 0, < will cause problems when early abandoning
-		for (i = 0; i < s.length & total <= bsf; i++){
-			total += (s[i] - t[i]) * (s[i] - t[i]);
-		}
+		double total = LockStep.squaredEuclidean(s, t, bsf);
 		
 //		System.out.println("Euclidean: early abandon after: " + i + " from: " + s.length);
 
@@ -28,7 +25,7 @@ public class Euclidean implements Serializable {
 		return total;
 	}
 
-	public synchronized double distance(Object S, Object T){ //for knn imputation
+	public double distance(Object S, Object T){ //for knn imputation
 
 		Double[] s = (Double[]) T;
 		Double[] t = (Double[]) S;
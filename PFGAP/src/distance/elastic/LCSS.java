@@ -8,7 +8,7 @@ import java.util.Random;
 import core.AppContext;
 import core.contracts.ObjectDataset;
 import distance.DistanceTools;
-import distance.MemorySpaceProvider;
+import distance.Scratch;
 
 /**
  * Some classes in this package may contain borrowed code from the timeseriesweka project (Bagnall, 2017), 
@@ -23,7 +23,7 @@ public class LCSS implements Serializable {
 	}
 	
 	//public synchronized double distance(double[] series1, double[] series2, double bsf, int windowSize, double epsilon) {
-	public synchronized double distance(Object Series1, Object Series2, double bsf, int windowSize, double epsilon) {
+	public double distance(Object Series1, Object Series2, double bsf, int windowSize, double epsilon) {
 
 		double[] series1 = (double[]) Series1;
 		double[] series2 = (double[]) Series2;
@@ -35,47 +35,70 @@ public class LCSS implements Serializable {
 		int length1 = series1.length;
 		int length2 = series2.length;
 
-		int maxLength = Math.max(length1, length2);
 		int minLength = Math.min(length1, length2);
 
-		int [][]matrix = MemorySpaceProvider.getInstance(maxLength).getIntMatrix();
-//		int[][] matrix = MemoryManager.getInstance().getIntMatrix(0);
+		// Two rows of the band, from the thread's scratch space. Each row writes its band plus a MIN_VALUE
+		// sentinel on either side of it, which are all the cells the next row reads; cells outside them hold
+		// whatever an earlier row or call left there.
+		Scratch scratch = Scratch.get();
+		int[] prev = scratch.intRowA(length2);
+		int[] cur = scratch.intRowB(length2);
 
 		int i, j;
-	
-		matrix[0][0] = sim(series1[0], series2[0], epsilon);
-		for (i = 1; i < Math.min(length1, 1 + windowSize); i++) {
-			matrix[i][0] = (sim(series1[i], series2[0], epsilon)==1)?sim(series1[i], series2[0], epsilon):matrix[i-1][0];
-		}
+		int lo = 0; // the cells of the current row that hold values of this call
+		int hi;
 
+		cur[0] = sim(series1[0], series2[0], epsilon);
 		for (j = 1; j < Math.min(length2, 1 + windowSize); j++) {
-			matrix[0][j] = (sim(series1[0], series2[j], epsilon)==1?sim(series1[0], series2[j], epsilon):matrix[0][j-1]);
+			cur[j] = (sim(series1[0], series2[j], epsilon)==1?sim(series1[0], series2[j], epsilon):cur[j-1]);
 		}
 		
 		if (j < length2)
-			matrix[0][j] = Integer.MIN_VALUE;
+			cur[j] = Integer.MIN_VALUE;
+		hi = Math.min(j, length2 - 1);
 
 
 		for (i = 1; i < length1; i++) {
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+
 			int jStart = (i - windowSize < 1) ? 1 : i - windowSize;
 			int jStop = (i + windowSize + 1 > length2) ? length2 : i + windowSize + 1;
 			
-			if (i-windowSize-1>=0)
-				matrix[i][i-windowSize-1] = Integer.MIN_VALUE;
+			if (i < 1 + windowSize) {
+				cur[0] = (sim(series1[i], series2[0], epsilon)==1)?sim(series1[i], series2[0], epsilon):prev[0];
+				lo = 0;
+			} else {
+				lo = i - windowSize - 1;
+				if (lo < length2)
+					cur[lo] = Integer.MIN_VALUE;
+			}
+			int rowMax = (jStart == 1) ? cur[0] : Integer.MIN_VALUE;
 			for (j = jStart; j < jStop; j++) {
 				if (sim(series1[i], series2[j], epsilon) == 1) {
-					matrix[i][j] = matrix[i - 1][j - 1] + 1;
+					cur[j] = prev[j - 1] + 1;
 				} else {
-					matrix[i][j] = max(matrix[i - 1][j - 1], matrix[i][j - 1], matrix[i - 1][j]);
+					cur[j] = max(prev[j - 1], cur[j - 1], prev[j]);
 				}
+				if (cur[j] > rowMax) rowMax = cur[j];
 			}
 			if (jStop < length2)
-				matrix[i][jStop] = Integer.MIN_VALUE;
+				cur[jStop] = Integer.MIN_VALUE;
+			hi = Math.min(jStop, length2 - 1);
+
+			// each remaining row adds at most one match, which caps the final LCSS and so bounds the distance from below
+			if (rowMax > Integer.MIN_VALUE) {
+				double lowerBound = 1.0 - 1.0 * Math.min(rowMax + (length1 - 1 - i), minLength) / minLength;
+				if (lowerBound > bsf) {
+					return lowerBound;
+				}
+			}
 		}
 		
-		double res = 1.0 - 1.0 * matrix[length1 - 1][length2 - 1] / minLength;
-		MemorySpaceProvider.getInstance().returnIntMatrix(matrix);
-		return res;
+		// a window that does not reach the last cell leaves it without a common subsequence
+		int lcss = (lo <= length2 - 1 && length2 - 1 <= hi) ? cur[length2 - 1] : 0;
+		return 1.0 - 1.0 * lcss / minLength;
 
 	}
 	
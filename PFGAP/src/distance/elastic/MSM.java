@@ -5,7 +5,7 @@ import java.util.Random;
 //import core.contracts.Dataset;
 import core.contracts.ObjectDataset;
 import distance.DistanceTools;
-import distance.MemorySpaceProvider;
+import distance.Scratch;
 
 /**
  * Some classes in this package may contain borrowed code from the timeseriesweka project (Bagnall, 2017), 
@@ -27,37 +27,42 @@ public class MSM implements Serializable {
 		double[] second = (double[]) Second;
 
 		int m = first.length, n = second.length;
-		int maxLength=(m>=n)?m:n;
-		double[][]cost = MemorySpaceProvider.getInstance(maxLength).getDoubleMatrix();
-//		double[][]cost = MemoryManager.getInstance().getDoubleMatrix(0);
-		if (cost == null || cost.length < m || cost[0].length < n) {
-			cost = new double[m][n];
-		}
+
+		// two rows of the cost matrix, from the thread's scratch space; every cell is written before it is read
+		Scratch scratch = Scratch.get();
+		double[] prev = scratch.rowA(n);
+		double[] cur = scratch.rowB(n);
 
 		// Initialization
-		cost[0][0] = Math.abs(first[0] - second[0]);
-		for (int i = 1; i < m; i++) {
-			cost[i][0] = cost[i - 1][0] + calcualteCost(first[i], first[i - 1], second[0], c);
-		}
-		for (int i = 1; i < n; i++) {
-			cost[0][i] = cost[0][i - 1] + calcualteCost(second[i], first[0], second[i - 1], c);
+		cur[0] = Math.abs(first[0] - second[0]);
+		for (int j = 1; j < n; j++) {
+			cur[j] = cur[j - 1] + calcualteCost(second[j], first[0], second[j - 1], c);
 		}
 
 		// Main Loop
 		for (int i = 1; i < m; i++) {
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+
+			cur[0] = prev[0] + calcualteCost(first[i], first[i - 1], second[0], c);
+			double rowMin = cur[0];
 			for (int j = 1; j < n; j++) {
 				double d1, d2, d3;
-				d1 = cost[i - 1][j - 1] + Math.abs(first[i] - second[j]);
-				d2 = cost[i - 1][j] + calcualteCost(first[i], first[i - 1], second[j], c);
-				d3 = cost[i][j - 1] + calcualteCost(second[j], first[i], second[j - 1], c);
-				cost[i][j] = DistanceTools.Min3(d1, d2, d3);
+				d1 = prev[j - 1] + Math.abs(first[i] - second[j]);
+				d2 = prev[j] + calcualteCost(first[i], first[i - 1], second[j], c);
+				d3 = cur[j - 1] + calcualteCost(second[j], first[i], second[j - 1], c);
+				cur[j] = DistanceTools.Min3(d1, d2, d3);
+				if (cur[j] < rowMin) rowMin = cur[j];
 
 			}
+			// every alignment crosses row i and all move costs are nonnegative, so rowMin bounds the result
+			if (rowMin > bsf) {
+				return rowMin;
+			}
 		}
 		// Output
-		double res = cost[m - 1][n - 1];
-		MemorySpaceProvider.getInstance().returnDoubleMatrix(cost);
-		return res;
+		return cur[n - 1];
 	}
 
 	private static final double calcualteCost(double new_point, double x, double y, double c) {
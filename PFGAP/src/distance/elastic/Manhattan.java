@@ -1,5 +1,7 @@
 package distance.elastic;
 
+import distance.LockStep;
+
 import java.io.Serializable;
 
 public class Manhattan implements Serializable {
@@ -8,20 +10,16 @@ public class Manhattan implements Serializable {
     }
 
     //public synchronized double distance(double[] s, double[] t, double bsf){
-    public synchronized double distance(Object S, Object T, double bsf){
+    public double distance(Object S, Object T, double bsf){
 
         double[] t = (double[]) T;
         double[] s = (double[]) S;
 
-        int i = 0;
-        double total = 0;
         //Integer[] plist = new Integer[]{1,3,4};
 
         //assume s.length == t.length for this implementation
         //TODO note <=, if bsf = 0, < will cause problems when early abandoning
-        for (i = 0; i < s.length & total <= bsf; i++){
-            total += Math.abs(s[i] - t[i]);
-        }
+        double total = LockStep.manhattan(s, t, bsf);
 
 //		System.out.println("Euclidean: early abandon after: " + i + " from: " + s.length);
 
@@ -1,29 +1,59 @@
 package distance.elastic;
 
+import distance.Scratch;
+import distance.TransformCache;
+import transformation.FFT;
+
 import java.io.Serializable;
 
 public class SBD implements Serializable {
 
+    // The cross-correlation of the z-normalised series at every shift, as one inverse FFT of the product of their
+    // spectra. The spectra come from the TransformCache, so each series is normalised and transformed once.
     public double distance(Object Series1, Object Series2) {
 
         double[] series1 = (double[]) Series1;
         double[] series2 = (double[]) Series2;
 
-        double[] norm1 = zNormalize(series1);
-        double[] norm2 = zNormalize(series2);
+        int n = series1.length;
+        if (series2.length < n) {
+            throw new IllegalArgumentException("The second series must be at least as long as the first.");
+        }
+
+        // the shifts only ever pair series1 with the first n points of series2
+        int size = FFT.paddedLength(n);
+        double[] spectrum1 = TransformCache.sbdSpectrum(series1);
+        double[] spectrum2 = series2.length == n
+                ? TransformCache.sbdSpectrum(series2)
+                : FFT.spectrum(zNormalize(series2), n, size);
+
+        // conj(X) * Y transforms back to sum_i x[i] * y[i + shift], with negative shifts wrapped to the end
+        double[] corr = Scratch.get().rowA(2 * size);
+        for (int k = 0; k < 2 * size; k += 2) {
+            double xr = spectrum1[k], xi = spectrum1[k + 1];
+            double yr = spectrum2[k], yi = spectrum2[k + 1];
+            corr[k] = xr * yr + xi * yi;
+            corr[k + 1] = xr * yi - xi * yr;
+        }
+        FFT.transform(corr, size, true);
 
         double maxCorr = -Double.MAX_VALUE;
-        for (int shift = -norm1.length + 1; shift < norm1.length; shift++) {
-            double corr = crossCorrelation(norm1, norm2, shift);
-            if (corr > maxCorr) {
-                maxCorr = corr;
+        for (int shift = -n + 1; shift < n; shift++) {
+            double c = corr[2 * (shift < 0 ? size + shift : shift)] / size;
+            if (c > maxCorr) {
+                maxCorr = c;
             }
         }
 
         return 1.0 - maxCorr;
     }
 
-    private double[] zNormalize(double[] series) {
+    /** The spectrum of the z-normalised series, zero-padded to FFT.paddedLength(series.length) points. */
+    public static double[] spectrum(double[] series) {
+        return FFT.spectrum(zNormalize(series), series.length, FFT.paddedLength(series.length));
+    }
+
+    private static double[] zNormalize(double[] series) {
         double mean = 0.0, std = 0.0;
         for (double v : series) mean += v;
         mean /= series.length;
@@ -36,16 +66,4 @@ public class SBD implements Serializable {
         }
         return normalized;
     }
-
-    private double crossCorrelation(double[] x, double[] y, int shift) {
-        int len = x.length;
-        double sum = 0.0;
-        for (int i = 0; i < len; i++) {
-            int j = i + shift;
-            if (j >= 0 && j < len) {
-                sum += x[i] * y[j];
-            }
-        }
-        return sum;
-    }
 }
@@ -1,7 +1,6 @@
 package distance.elastic;
 
-import transformation.FirstOrderDifference;
-import transformation.HistogramOfGradients;
+import distance.TransformCache;
 
 import java.io.Serializable;
 
@@ -13,20 +12,15 @@ public class ShapeHoG1dDTW extends DTW{
     }
 
     //public synchronized double distance(double[] series1, double[] series2, double bsf, int w) {
-    public synchronized double distance(Object Series1, Object Series2, double bsf, int w) {
+    public double distance(Object Series1, Object Series2, double bsf, int w) {
 
         double[] series1 = (double[]) Series1;
         double[] series2 = (double[]) Series2;
 
 //		System.out.println("calling ddtw with w="+w);
 
-        series1 = FirstOrderDifference.computeFirstOrderDifference(series1);
-        series2 = FirstOrderDifference.computeFirstOrderDifference(series2);
-
-        series1 = HistogramOfGradients.computeHistogram(series1);
-        series2 = HistogramOfGradients.computeHistogram(series2);
-
-        return super.distance(series1, series2, bsf,w);
+        // histograms of gradients of the first-order differences
+        return super.distance(TransformCache.hog(series1), TransformCache.hog(series2), bsf,w);
     }
 
 
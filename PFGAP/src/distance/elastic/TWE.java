@@ -5,7 +5,7 @@ import java.util.Random;
 
 //import core.contracts.Dataset;
 import core.contracts.ObjectDataset;
-import distance.MemorySpaceProvider;
+import distance.Scratch;
 
 /**
  * Some classes in this package may contain borrowed code from the timeseriesweka project (Bagnall, 2017), 
@@ -25,103 +25,77 @@ public class TWE implements Serializable {
 		double[] ta = (double[]) Ta;
 		double[] tb = (double[]) Tb;
 
-		int m = ta.length;
-		int n = tb.length;
-		int maxLength = Math.max(m, n);
-		
-		double dist, disti1, distj1;
+		int r = ta.length;
+		int c = tb.length;
 
-		int r = ta.length; // this is just m?!
-		int c = tb.length; // so is this, but surely it should actually
-				   // be n anyway
-		
+		double dist, disti1, distj1;
 		int i, j;
-		/*
-		 * allocations in c double **D = (double **)calloc(r+1,
-		 * sizeof(double*)); double *Di1 = (double *)calloc(r+1,
-		 * sizeof(double)); double *Dj1 = (double *)calloc(c+1,
-		 * sizeof(double)); for(i=0; i<=r; i++) { D[i]=(double
-		 * *)calloc(c+1, sizeof(double)); }
-		 */
-
-		double[][]D = MemorySpaceProvider.getInstance(maxLength+1).getDoubleMatrix();
-		double[]Di1 = MemorySpaceProvider.getInstance(maxLength+1).getDoubleArray();
-		double[]Dj1 = MemorySpaceProvider.getInstance(maxLength+1).getDoubleArray();
-//		double[][] D = MemoryManager.getInstance().getDoubleMatrix(0);
-//		double[] Di1 = MemoryManager.getInstance().getDoubleArray(0);
-//		double[] Dj1 = MemoryManager.getInstance().getDoubleArray(1);
-
-		// FPH adding initialisation given that using matrices as fields
-		Di1[0] = 0.0;
-		Dj1[0] = 0.0;
+
+		// The C original keeps the full (r+1) x (c+1) matrix D of local costs and overwrites it with the
+		// accumulated ones. Row i only reads rows i and i-1, so two rows of the thread's scratch space suffice,
+		// with the local cost of each cell computed just before the cell is accumulated. Dj1 holds the local
+		// deletion costs of tb; the ones of ta are needed one at a time.
+		Scratch scratch = Scratch.get();
+		double[] prev = scratch.rowA(c + 1);
+		double[] cur = scratch.rowB(c + 1);
+		double[] Dj1 = scratch.rowC(c + 1);
+
 		// local costs initializations
+		Dj1[0] = 0.0;
 		for (j = 1; j <= c; j++) {
 			distj1 = 0;
 			if (j > 1) {
 				// CHANGE AJB 8/1/16: Only use power of
 				// 2 for speed
 				distj1 += (tb[j - 2] - tb[j - 1]) * (tb[j - 2] - tb[j - 1]);
-				// OLD VERSION
-				// distj1+=Math.pow(Math.abs(tb[j-2][k]-tb[j-1][k]),degree);
-				// in c:
-				// distj1+=pow(fabs(tb[j-2][k]-tb[j-1][k]),degree);
 			} else {
 				distj1 += tb[j - 1] * tb[j - 1];
 			}
-			// OLD distj1+=Math.pow(Math.abs(tb[j-1][k]),degree);
 			Dj1[j] = (distj1);
 		}
 
+		// border of the cost matrix initialization
+		cur[0] = 0;
+		for (j = 1; j <= c; j++) {
+			cur[j] = cur[j - 1] + Dj1[j];
+		}
+
+		double dmin, htrans, dist0;
+
 		for (i = 1; i <= r; i++) {
+			double[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+
 			disti1 = 0;
 			if (i > 1) {
 				disti1 += (ta[i - 2] - ta[i - 1]) * (ta[i - 2] - ta[i - 1]);
-			} // OLD
-			  // disti1+=Math.pow(Math.abs(ta[i-2][k]-ta[i-1][k]),degree);
-			else {
+			} else {
 				disti1 += (ta[i - 1]) * (ta[i - 1]);
 			}
-			// OLD disti1+=Math.pow(Math.abs(ta[i-1][k]),degree);
-
-			Di1[i] = (disti1);
 
+			cur[0] = prev[0] + disti1;
+			double rowMin = cur[0];
 			for (j = 1; j <= c; j++) {
+				// local cost of matching ta[i-1] with tb[j-1]
 				dist = 0;
 				dist += (ta[i - 1] - tb[j - 1]) * (ta[i - 1] - tb[j - 1]);
-				// dist+=Math.pow(Math.abs(ta[i-1][k]-tb[j-1][k]),degree);
 				if (i > 1 && j > 1) {
 					dist += (ta[i - 2] - tb[j - 2]) * (ta[i - 2] - tb[j - 2]);
 				}
-				// dist+=Math.pow(Math.abs(ta[i-2][k]-tb[j-2][k]),degree);
-				D[i][j] = (dist);
-			}
-		} // for i
-
-		// border of the cost matrix initialization
-		D[0][0] = 0;
-		for (i = 1; i <= r; i++) {
-			D[i][0] = D[i - 1][0] + Di1[i];
-		}
-		for (j = 1; j <= c; j++) {
-			D[0][j] = D[0][j - 1] + Dj1[j];
-		}
-
-		double dmin, htrans, dist0;
 
-		for (i = 1; i <= r; i++) {
-			for (j = 1; j <= c; j++) {
 				htrans = Math.abs(i- j);
 				if (j > 1 && i > 1) {
 					htrans += Math.abs((i-1) - (j-1));
 				}
-				dist0 = D[i - 1][j - 1] + nu * htrans + D[i][j];
+				dist0 = prev[j - 1] + nu * htrans + dist;
 				dmin = dist0;
 				if (i > 1) {
 					htrans = 1;
 				} else {
 					htrans = i;
 				}
-				dist = Di1[i] + D[i - 1][j] + lambda + nu * htrans;
+				dist = disti1 + prev[j] + lambda + nu * htrans;
 				if (dmin > dist) {
 					dmin = dist;
 				}
@@ -130,19 +104,20 @@ public class TWE implements Serializable {
 				} else {
 					htrans = j;
 				}
-				dist = Dj1[j] + D[i][j - 1] + lambda + nu * htrans;
+				dist = Dj1[j] + cur[j - 1] + lambda + nu * htrans;
 				if (dmin > dist) {
 					dmin = dist;
 				}
-				D[i][j] = dmin;
+				cur[j] = dmin;
+				if (dmin < rowMin) rowMin = dmin;
+			}
+			// every alignment crosses row i and all costs are nonnegative, so rowMin bounds the result
+			if (rowMin > bsf) {
+				return rowMin;
 			}
 		}
 
-		dist = D[r][c];
-		MemorySpaceProvider.getInstance().returnDoubleMatrix(D);
-		MemorySpaceProvider.getInstance().returnDoubleArray(Di1);
-		MemorySpaceProvider.getInstance().returnDoubleArray(Dj1);
-		return dist;
+		return cur[c];
 	}
 	
 	public double get_random_nu(ObjectDataset d, Random r) {
@@ -1,5 +1,7 @@
 package distance.elastic;
 
+import distance.TransformCache;
+
 /**
  * Some classes in this package may contain borrowed code from the timeseriesweka project (Bagnall, 2017), 
  * we might have modified (bug fixes, and improvements for efficiency) the original classes.
@@ -7,23 +9,13 @@ package distance.elastic;
  */
 
 public class WDDTW extends WDTW{
-	protected double[] deriv1, deriv2;
 
 	//public synchronized double distance(double[] first, double[] second, double bsf, double g) {
-	public synchronized double distance(Object First, Object Second, double bsf, double g) {
+	public double distance(Object First, Object Second, double bsf, double g) {
 
 		double[] first = (double[]) First;
 		double[] second = (double[]) Second;
 
-		if (deriv1 == null || deriv1.length != first.length) {
-			deriv1 = new double[first.length];
-		}
-		DDTW.getDeriv(deriv1, first);
-
-		if (deriv2 == null || deriv2.length != second.length) {
-			deriv2 = new double[second.length];
-		}
-		DDTW.getDeriv(deriv2, second);
-		return super.distance(deriv1, deriv2, bsf, g);
+		return super.distance(TransformCache.derivative(first), TransformCache.derivative(second), bsf, g);
 	}	
 }
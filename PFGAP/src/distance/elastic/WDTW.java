@@ -1,6 +1,7 @@
 package distance.elastic;
 
 import core.contracts.ObjectDataset;
+import distance.Scratch;
 
 import java.io.Serializable;
 import java.util.Random;
@@ -15,33 +16,37 @@ import java.util.Random;
 public class WDTW implements Serializable {
 	
 	private static final double WEIGHT_MAX = 1;
-	private double g; // "empirical constant that controls the curvature
-			  // (slope) of the function
-	private double[] weightVector; // initilised on first distance call
+	// weights of the last (g, length) seen; g is the "empirical constant that controls the curvature
+	// (slope) of the function". Replaced whole, so concurrent callers never see a half-built vector.
+	private transient volatile Weights weights;
 	
 	public WDTW() {
 		
 	}
 	
-	public void setG(double g,int length){
-		if(this.g!=g || this.weightVector==null){
-			this.g= g;
-			this.initWeights(length);
+	/** Weight vector for g and the given series length, reusing the previous one when they match. */
+	public double[] weightsFor(double g, int length) {
+		Weights w = this.weights;
+		if (w == null || !w.matches(g, length)) {
+			w = new Weights(g, length);
+			this.weights = w;
 		}
-		
+		return w.vector;
 	}	
 	
 	//fast WDTW implemented by Geoff Webb
 	//public synchronized double distance(double[] first, double[] second, double bsf, double g) {
-	public synchronized double distance(Object First, Object Second, double bsf, double g) {
+	public double distance(Object First, Object Second, double bsf, double g) {
 
 		double[] first = (double[]) First;
 		double[] second = (double[]) Second;
 
-		this.setG(g, Math.max(first.length,second.length));
+		double[] weightVector = weightsFor(g, Math.max(first.length,second.length));
 
-		double[] prevRow = new double[second.length];
-		double[] curRow = new double[second.length];
+		// every row is written in full before it is read, so the thread's scratch rows need no clearing
+		Scratch scratch = Scratch.get();
+		double[] prevRow = scratch.rowA(second.length);
+		double[] curRow = scratch.rowB(second.length);
 		double second0 = second[0];
 		double thisDiff;
 		double prevVal = 0.0;
@@ -52,12 +57,12 @@ public class WDTW implements Serializable {
 		
 			// first value
 			thisDiff = first0 - second0;
-			prevVal = prevRow[0] = this.weightVector[0] * thisDiff * thisDiff;
+			prevVal = prevRow[0] = weightVector[0] * thisDiff * thisDiff;
 	
 			// top row
 			for (int j = 1; j < second.length; j++) {
 				thisDiff = first0 - second[j];
-				prevVal = prevRow[j] = prevVal + this.weightVector[j] * thisDiff * thisDiff;
+				prevVal = prevRow[j] = prevVal + weightVector[j] * thisDiff * thisDiff;
 			}
 		}
 		
@@ -66,13 +71,13 @@ public class WDTW implements Serializable {
 		
 		// second row is a special case because path can't go through prevRow[j]
 		thisDiff = firsti - second0;
-		prevVal = curRow[0] = prevRow[0] + this.weightVector[1] * thisDiff * thisDiff;
+		prevVal = curRow[0] = prevRow[0] + weightVector[1] * thisDiff * thisDiff;
 		
 		for (int j = 1; j < second.length; j++) {
 			// calculate distances
 			minDistance = Math.min(prevVal, prevRow[j - 1]);
 			thisDiff = firsti - second[j];
-			prevVal = curRow[j] = minDistance + this.weightVector[j-1] * thisDiff * thisDiff;
+			prevVal = curRow[j] = minDistance + weightVector[j-1] * thisDiff * thisDiff;
 		}
 
 		// warp rest
@@ -84,15 +89,21 @@ public class WDTW implements Serializable {
 			firsti = first[i];
 			
 			thisDiff = firsti - second0;
-			prevVal = curRow[0] = prevRow[0] + this.weightVector[i] * thisDiff * thisDiff;
+			prevVal = curRow[0] = prevRow[0] + weightVector[i] * thisDiff * thisDiff;
+			double rowMin = prevVal;
 			
 			for (int j = 1; j < second.length; j++) {
 				// calculate distances
 				minDistance = min(prevVal, prevRow[j], prevRow[j - 1]);
 				thisDiff = firsti - second[j];
-				prevVal = curRow[j] = minDistance + this.weightVector[Math.abs(i - j)] * thisDiff * thisDiff;
+				prevVal = curRow[j] = minDistance + weightVector[Math.abs(i - j)] * thisDiff * thisDiff;
+				if (prevVal < rowMin) rowMin = prevVal;
 			}
 
+			// every warping path crosses row i and the weights are positive, so rowMin bounds the result from below
+			if (rowMin > bsf) {
+				return rowMin;
+			}
 		}
 
 		double res = prevVal;
@@ -120,12 +131,27 @@ public class WDTW implements Serializable {
 	}
 	
 	
-	private void initWeights(int seriesLength) {
-		this.weightVector = new double[seriesLength];
-		double halfLength = (double) seriesLength / 2;
+	/** An immutable logistic weight vector for one value of g. */
+	public static final class Weights {
+		final double g;
+		final double[] vector;
+
+		public Weights(double g, int seriesLength) {
+			this.g = g;
+			this.vector = new double[seriesLength];
+			double halfLength = (double) seriesLength / 2;
+
+			for (int i = 0; i < seriesLength; i++) {
+				vector[i] = WEIGHT_MAX / (1 + Math.exp(-g * (i - halfLength)));
+			}
+		}
+
+		public boolean matches(double g, int seriesLength) {
+			return this.g == g && vector.length == seriesLength;
+		}
 
-		for (int i = 0; i < seriesLength; i++) {
-			weightVector[i] = WEIGHT_MAX / (1 + Math.exp(-g * (i - halfLength)));
+		public double[] vector() {
+			return vector;
 		}
 	}
 	
@@ -23,7 +23,7 @@ public class CID_I implements Serializable {
      * @param bsf Early abandoning threshold
      * @return Average CID distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf) {
+    public double distance(Object Series1, Object Series2, double bsf) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -1,16 +1,27 @@
 package distance.multiTS;
 
+import distance.Scratch;
 import util.Pair;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class DTW_D implements Serializable {
 
+    // the step into a cell of an alignment path, backwards: from (i-1, j-1), (i-1, j) or (i, j-1), the path
+    // start, or (0, 0) for cells the DP never reached
+    private static final byte STEP_ORIGIN = 0;
+    private static final byte STEP_DIAGONAL = 1;
+    private static final byte STEP_UP = 2;
+    private static final byte STEP_LEFT = 3;
+    private static final byte STEP_END = 4;
+
     public DTW_D() {}
 
-    public synchronized double distance(Object Series1, Object Series2, double bsf, int windowSize) {
+    public double distance(Object Series1, Object Series2, double bsf, int windowSize) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -31,39 +42,89 @@ public class DTW_D implements Serializable {
             }
         }
 
+        return distance(series1, series2, bsf, windowSize, len1, len2);
+    }
+
+    // Banded DTW over two rows of the thread's scratch space. Cells outside the window count as 0 when they are
+    // read, as they did in the full cost matrix: the only ones the DP reads are the cell just left of each row's
+    // window and the cell just right of the previous row's window, so those two are cleared.
+    static double distance(double[][] series1, double[][] series2, double bsf, int windowSize, int len1, int len2) {
         if (windowSize == -1) {
             windowSize = Math.max(len1, len2);
         }
 
-        double[][] cost = new double[len1][len2];
+        Scratch scratch = Scratch.get();
+        double[] prev = scratch.rowA(len2);
+        double[] cur = scratch.rowB(len2);
+        double[] local = scratch.rowC(len2);
 
+        // cells outside the window stay 0 and are read by the next row, so a row minimum only bounds the
+        // result when the window covers every row completely
+        boolean canAbandon = windowSize >= Math.max(len1, len2) - 1;
+
+        int jStart = 0;
+        int jStop = -1;
         for (int i = 0; i < len1; i++) {
-            int jStart = Math.max(0, i - windowSize);
-            int jStop = Math.min(len2 - 1, i + windowSize);
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
+            jStart = Math.max(0, i - windowSize);
+            jStop = Math.min(len2 - 1, i + windowSize);
+            if (jStart > 0 && jStart - 1 < len2) cur[jStart - 1] = 0.0;
+            localCosts(series1, series2, i, jStart, jStop, local);
 
+            double rowMin = Double.POSITIVE_INFINITY;
             for (int j = jStart; j <= jStop; j++) {
-                double dist = squaredDistanceAt(series1, series2, i, j);
+                double dist = local[j];
 
+                double cell;
                 if (i == 0 && j == 0) {
-                    cost[i][j] = dist;
+                    cell = dist;
                 } else {
                     double minPrev = Double.POSITIVE_INFINITY;
-                    if (i > 0 && j > 0) minPrev = Math.min(minPrev, cost[i - 1][j - 1]);
-                    if (i > 0) minPrev = Math.min(minPrev, cost[i - 1][j]);
-                    if (j > 0) minPrev = Math.min(minPrev, cost[i][j - 1]);
+                    if (i > 0 && j > 0) minPrev = Math.min(minPrev, prev[j - 1]);
+                    if (i > 0) minPrev = Math.min(minPrev, prev[j]);
+                    if (j > 0) minPrev = Math.min(minPrev, cur[j - 1]);
 
-                    cost[i][j] = dist + minPrev;
+                    cell = dist + minPrev;
                 }
+                cur[j] = cell;
 
-                if (cost[i][j] > bsf * bsf) return Double.POSITIVE_INFINITY;
+                if (cell < rowMin) rowMin = cell;
             }
+            if (jStop + 1 < len2) cur[jStop + 1] = 0.0;
+
+            // every warping path crosses row i, so the cheapest cell of the row bounds the final distance from below
+            if (canAbandon && Math.sqrt(rowMin) > bsf) return Math.sqrt(rowMin);
         }
 
-        double finalDist = Math.sqrt(cost[len1 - 1][len2 - 1]);
-        return finalDist > bsf ? Double.POSITIVE_INFINITY : finalDist;
+        if (len1 == 0 || len2 == 0) {
+            throw new IllegalArgumentException("Both series must have at least one time step.");
+        }
+
+        // the last cell is 0 when the window does not reach it
+        double last = (len2 - 1 >= jStart && len2 - 1 <= jStop) ? cur[len2 - 1] : 0.0;
+        return Math.sqrt(last);
     }
 
-    private double squaredDistanceAt(double[][] s1, double[][] s2, int t1, int t2) {
+    // The squared distances of point i of s1 to points jStart..jStop of s2, summed over the dimensions in the same
+    // order as squaredDistanceAt. Going one dimension at a time keeps the inner loop on contiguous points, which the
+    // JIT can vectorise, instead of striding across the dimension arrays for every cell.
+    static void localCosts(double[][] s1, double[][] s2, int i, int jStart, int jStop, double[] out) {
+        if (jStart > jStop) return;
+        Arrays.fill(out, jStart, jStop + 1, 0.0);
+        for (int d = 0; d < s1.length; d++) {
+            double x = s1[d][i];
+            double[] y = s2[d];
+            for (int j = jStart; j <= jStop; j++) {
+                double diff = x - y[j];
+                out[j] += diff * diff;
+            }
+        }
+    }
+
+    private static double squaredDistanceAt(double[][] s1, double[][] s2, int t1, int t2) {
         double sum = 0.0;
         for (int d = 0; d < s1.length; d++) {
             double diff = s1[d][t1] - s2[d][t2];
@@ -80,55 +141,67 @@ public class DTW_D implements Serializable {
             windowSize = Math.max(len1, len2);
         }
 
-        double[][] cost = new double[len1][len2];
-        int[][][] backtrack = new int[len1][len2][2];
+        // two rows of costs as in distance, and the step into every cell as one byte
+        Scratch scratch = Scratch.get();
+        double[] prev = scratch.rowA(len2);
+        double[] cur = scratch.rowB(len2);
+        byte[] steps = scratch.directions(len1 * len2);
 
         for (int i = 0; i < len1; i++) {
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
             int jStart = Math.max(0, i - windowSize);
             int jStop = Math.min(len2 - 1, i + windowSize);
+            if (jStart > 0 && jStart - 1 < len2) cur[jStart - 1] = 0.0;
 
             for (int j = jStart; j <= jStop; j++) {
                 double dist = squaredDistanceAt(series1, series2, i, j);
 
                 if (i == 0 && j == 0) {
-                    cost[i][j] = dist;
-                    backtrack[i][j][0] = -1;
-                    backtrack[i][j][1] = -1;
+                    cur[j] = dist;
+                    steps[i * len2 + j] = STEP_END;
                 } else {
                     double minPrev = Double.POSITIVE_INFINITY;
-                    int pi = -1, pj = -1;
+                    byte step = STEP_END;
 
-                    if (i > 0 && j > 0 && cost[i - 1][j - 1] < minPrev) {
-                        minPrev = cost[i - 1][j - 1];
-                        pi = i - 1; pj = j - 1;
+                    if (i > 0 && j > 0 && prev[j - 1] < minPrev) {
+                        minPrev = prev[j - 1];
+                        step = STEP_DIAGONAL;
                     }
-                    if (i > 0 && cost[i - 1][j] < minPrev) {
-                        minPrev = cost[i - 1][j];
-                        pi = i - 1; pj = j;
+                    if (i > 0 && prev[j] < minPrev) {
+                        minPrev = prev[j];
+                        step = STEP_UP;
                     }
-                    if (j > 0 && cost[i][j - 1] < minPrev) {
-                        minPrev = cost[i][j - 1];
-                        pi = i; pj = j - 1;
+                    if (j > 0 && cur[j - 1] < minPrev) {
+                        minPrev = cur[j - 1];
+                        step = STEP_LEFT;
                     }
 
-                    cost[i][j] = dist + minPrev;
-                    backtrack[i][j][0] = pi;
-                    backtrack[i][j][1] = pj;
+                    cur[j] = dist + minPrev;
+                    steps[i * len2 + j] = step;
                 }
             }
+            if (jStop + 1 < len2) cur[jStop + 1] = 0.0;
         }
 
-        // Backtrack to extract path
+        // Backtrack to extract path; a cell outside the window was never reached by the DP and leads to (0, 0)
         List<Pair<Integer, Integer>> path = new ArrayList<>();
         int i = len1 - 1, j = len2 - 1;
         while (i >= 0 && j >= 0) {
-            path.add(0, new Pair<>(i, j));
-            int ni = backtrack[i][j][0];
-            int nj = backtrack[i][j][1];
-            if (ni == -1 || nj == -1) break;
-            i = ni;
-            j = nj;
+            path.add(new Pair<>(i, j));
+            byte step = Math.abs(i - j) <= windowSize ? steps[i * len2 + j] : STEP_ORIGIN;
+            if (step == STEP_END) break;
+            if (step == STEP_ORIGIN) {
+                i = 0;
+                j = 0;
+            } else {
+                if (step != STEP_LEFT) i--;
+                if (step != STEP_UP) j--;
+            }
         }
+        Collections.reverse(path);
 
         return path;
     }
@@ -1,6 +1,7 @@
 package distance.multiTS;
 
 import core.contracts.ObjectDataset;
+import distance.DistanceTools;
 import distance.elastic.Euclidean;
 
 import java.io.Serializable;
@@ -23,7 +24,7 @@ public class Euclidean_I implements Serializable {
      * @param bsf Early abandoning threshold
      * @return Average Euclidean distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf) {
+    public double distance(Object Series1, Object Series2, double bsf) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -33,7 +34,10 @@ public class Euclidean_I implements Serializable {
 
         double totalDistance = 0.0;
         for (int i = 0; i < series1.length; i++) {
-            totalDistance += euclidean.distance(series1[i], series2[i], bsf);
+            totalDistance += euclidean.distance(series1[i], series2[i], DistanceTools.dimensionBudget(bsf, series1.length, totalDistance));
+            if (DistanceTools.dimensionBudget(bsf, series1.length, totalDistance) < 0) {
+                break; // the average can no longer beat bsf
+            }
         }
 
         return totalDistance / series1.length;
@@ -21,7 +21,7 @@ public class SBD_I implements Serializable {
      * @param Series2 Object expected to be double[][]
      * @return Average SBD distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2) {
+    public double distance(Object Series1, Object Series2) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -1,6 +1,7 @@
 package distance.multiTS;
 
 import core.contracts.ObjectDataset;
+import distance.DistanceTools;
 import distance.elastic.ShapeHoG1dDTW;
 
 import java.io.Serializable;
@@ -24,7 +25,7 @@ public class ShapeHoG1dDTW_I implements Serializable {
      * @param windowSize Sakoe-Chiba window size
      * @return Average ShapeHoG1dDTW distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf, int windowSize) {
+    public double distance(Object Series1, Object Series2, double bsf, int windowSize) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -34,7 +35,10 @@ public class ShapeHoG1dDTW_I implements Serializable {
 
         double totalDistance = 0.0;
         for (int i = 0; i < series1.length; i++) {
-            totalDistance += hogdtw.distance(series1[i], series2[i], bsf, windowSize);
+            totalDistance += hogdtw.distance(series1[i], series2[i], DistanceTools.dimensionBudget(bsf, series1.length, totalDistance), windowSize);
+            if (DistanceTools.dimensionBudget(bsf, series1.length, totalDistance) < 0) {
+                break; // the average can no longer beat bsf
+            }
         }
 
         return totalDistance / series1.length;
@@ -1,8 +1,6 @@
 package distance.multiTS;
 
-import transformation.FirstOrderDifference;
-import transformation.MultivariateHistogramOfGradients;
-import transformation.MultivariateHistogramOfGradients.Strategy;
+import distance.TransformCache;
 
 import java.io.Serializable;
 
@@ -20,17 +18,13 @@ public class ShapeHoGDTW implements Serializable {
      * @param windowSize Sakoe-Chiba window size
      * @return DTW distance between histogram representations
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf, int windowSize) {
+    public double distance(Object Series1, Object Series2, double bsf, int windowSize) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
-        // Apply first-order difference
-        double[][] diff1 = FirstOrderDifference.computeFirstOrderDifference(series1);
-        double[][] diff2 = FirstOrderDifference.computeFirstOrderDifference(series2);
-
-        // Compute multivariate histograms using default strategy
-        double[] hist1 = MultivariateHistogramOfGradients.computeHistogram(diff1, Strategy.CONCATENATE_GRADIENTS);
-        double[] hist2 = MultivariateHistogramOfGradients.computeHistogram(diff2, Strategy.CONCATENATE_GRADIENTS);
+        // Multivariate histograms (default strategy) of the first-order differences
+        double[] hist1 = TransformCache.hog(series1);
+        double[] hist2 = TransformCache.hog(series2);
 
         // Apply univariate DTW to the histogram vectors
         return new distance.elastic.DTW().distance(hist1, hist2, bsf, windowSize);
@@ -1,6 +1,7 @@
 package distance.multiTS;
 
 import core.contracts.ObjectDataset;
+import distance.DistanceTools;
 import distance.elastic.TWE;
 
 import java.io.Serializable;
@@ -25,7 +26,7 @@ public class TWE_I implements Serializable {
      * @param lambda Penalty parameter
      * @return Average TWE distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf, double nu, double lambda) {
+    public double distance(Object Series1, Object Series2, double bsf, double nu, double lambda) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -35,7 +36,10 @@ public class TWE_I implements Serializable {
 
         double totalDistance = 0.0;
         for (int i = 0; i < series1.length; i++) {
-            totalDistance += twe.distance(series1[i], series2[i], bsf, nu, lambda);
+            totalDistance += twe.distance(series1[i], series2[i], DistanceTools.dimensionBudget(bsf, series1.length, totalDistance), nu, lambda);
+            if (DistanceTools.dimensionBudget(bsf, series1.length, totalDistance) < 0) {
+                break; // the average can no longer beat bsf
+            }
         }
 
         return totalDistance / series1.length;
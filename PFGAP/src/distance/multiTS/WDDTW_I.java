@@ -1,6 +1,7 @@
 package distance.multiTS;
 
 import core.contracts.ObjectDataset;
+import distance.DistanceTools;
 import distance.elastic.WDDTW;
 
 import java.io.Serializable;
@@ -24,7 +25,7 @@ public class WDDTW_I implements Serializable {
      * @param g Weighting parameter for logistic curve
      * @return Average WDDTW distance across all rows
      */
-    public synchronized double distance(Object Series1, Object Series2, double bsf, double g) {
+    public double distance(Object Series1, Object Series2, double bsf, double g) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -34,7 +35,10 @@ public class WDDTW_I implements Serializable {
 
         double totalDistance = 0.0;
         for (int i = 0; i < series1.length; i++) {
-            totalDistance += wddtw.distance(series1[i], series2[i], bsf, g);
+            totalDistance += wddtw.distance(series1[i], series2[i], DistanceTools.dimensionBudget(bsf, series1.length, totalDistance), g);
+            if (DistanceTools.dimensionBudget(bsf, series1.length, totalDistance) < 0) {
+                break; // the average can no longer beat bsf
+            }
         }
 
         return totalDistance / series1.length;
@@ -1,15 +1,17 @@
 package distance.multiTS;
 
+import distance.Scratch;
+import distance.elastic.WDTW;
+
 import java.io.Serializable;
 
 public class WDTW_D implements Serializable {
 
-    private double g;
-    private double[] weightVector;
+    private transient volatile WDTW.Weights weights; // replaced whole, so concurrent callers never see a partial vector
 
     public WDTW_D() {}
 
-    public synchronized double distance(Object Series1, Object Series2, double bsf, double g) {
+    public double distance(Object Series1, Object Series2, double bsf, double g) {
         double[][] series1 = (double[][]) Series1;
         double[][] series2 = (double[][]) Series2;
 
@@ -29,53 +31,62 @@ public class WDTW_D implements Serializable {
             }
         }
 
-        int maxLength = Math.max(len1, len2);
-        initWeights(g, maxLength);
+        return distance(series1, series2, bsf, weightsFor(g, Math.max(len1, len2)), len1, len2);
+    }
 
-        double[][] cost = new double[len1][len2];
+    // Full-window WDTW over two rows of the thread's scratch space; every cell of a row is written before it is read.
+    static double distance(double[][] series1, double[][] series2, double bsf, double[] weightVector, int len1, int len2) {
+        Scratch scratch = Scratch.get();
+        double[] prev = scratch.rowA(len2);
+        double[] cur = scratch.rowB(len2);
+        double[] local = scratch.rowC(len2);
 
         for (int i = 0; i < len1; i++) {
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+
+            DTW_D.localCosts(series1, series2, i, 0, len2 - 1, local);
+
+            double rowMin = Double.POSITIVE_INFINITY;
             for (int j = 0; j < len2; j++) {
-                double dist = squaredDistanceAt(series1, series2, i, j);
+                double dist = local[j];
                 double weight = weightVector[Math.abs(i - j)];
 
+                double cell;
                 if (i == 0 && j == 0) {
-                    cost[i][j] = weight * dist;
+                    cell = weight * dist;
                 } else {
                     double minPrev = Double.POSITIVE_INFINITY;
-                    if (i > 0 && j > 0) minPrev = Math.min(minPrev, cost[i - 1][j - 1]);
-                    if (i > 0) minPrev = Math.min(minPrev, cost[i - 1][j]);
-                    if (j > 0) minPrev = Math.min(minPrev, cost[i][j - 1]);
+                    if (i > 0 && j > 0) minPrev = Math.min(minPrev, prev[j - 1]);
+                    if (i > 0) minPrev = Math.min(minPrev, prev[j]);
+                    if (j > 0) minPrev = Math.min(minPrev, cur[j - 1]);
 
-                    cost[i][j] = weight * dist + minPrev;
+                    cell = weight * dist + minPrev;
                 }
+                cur[j] = cell;
 
-                if (cost[i][j] > bsf * bsf) return Double.POSITIVE_INFINITY;
+                if (cell < rowMin) rowMin = cell;
             }
-        }
 
-        double finalDist = Math.sqrt(cost[len1 - 1][len2 - 1]);
-        return finalDist > bsf ? Double.POSITIVE_INFINITY : finalDist;
-    }
-
-    private double squaredDistanceAt(double[][] s1, double[][] s2, int t1, int t2) {
-        double sum = 0.0;
-        for (int d = 0; d < s1.length; d++) {
-            double diff = s1[d][t1] - s2[d][t2];
-            sum += diff * diff;
+            // every warping path crosses row i, so the cheapest cell of the row bounds the final distance from below
+            if (Math.sqrt(rowMin) > bsf) return Math.sqrt(rowMin);
         }
-        return sum;
-    }
 
-    private void initWeights(double g, int seriesLength) {
-        if (this.g == g && this.weightVector != null && this.weightVector.length == seriesLength) return;
+        if (len1 == 0 || len2 == 0) {
+            throw new IllegalArgumentException("Both series must have at least one time step.");
+        }
 
-        this.g = g;
-        this.weightVector = new double[seriesLength];
-        double halfLength = (double) seriesLength / 2;
+        double finalDist = Math.sqrt(cur[len2 - 1]);
+        return finalDist;
+    }
 
-        for (int i = 0; i < seriesLength; i++) {
-            weightVector[i] = 1.0 / (1 + Math.exp(-g * (i - halfLength)));
+    private double[] weightsFor(double g, int seriesLength) {
+        WDTW.Weights w = this.weights;
+        if (w == null || !w.matches(g, seriesLength)) {
+            w = new WDTW.Weights(g, seriesLength);
+            this.weights = w;
         }
+        return w.vector();
     }
 }
\ No newline at end of file
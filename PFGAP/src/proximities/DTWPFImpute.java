@@ -19,6 +19,9 @@ public class DTWPFImpute {
 
     public static void trainNumericImpute(ListObjectDataset dataToUpdate) {
         List<Object> rawData = dataToUpdate.getData();
+        SparseProximityMatrix P = PFGAP.sparseProximitiesInUse()
+                ? AppContext.training_proximities_sparse
+                : SparseProximityMatrix.fromDense(AppContext.training_proximities, EPSILON);
         if (dataToUpdate.getMissingIndices().is2D()) {
             List<List<List<Integer>>> missingIndices2D = dataToUpdate.getMissingIndices().indices2D;
             List<Object> updated = IntStream.range(0, rawData.size())
@@ -34,13 +37,9 @@ public class DTWPFImpute {
                             for (int k : missing) {
                                 double weightedSum = 0;
                                 double totalWeight = 0;
-                                Map<Integer, Double> neighbors = AppContext.useSparseProximities
-                                        ? AppContext.training_proximities_sparse.get(n)
-                                        : convertDenseRowToMap(AppContext.training_proximities[n]);
-
-                                for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                    int j = entry.getKey();
-                                    double weight = entry.getValue();
+                                for (int p = P.rowStart(n); p < P.rowEnd(n); p++) {
+                                    int j = P.colIndex(p);
+                                    double weight = P.value(p);
                                     double[][] otherMatrix = (double[][]) rawData.get(j);
 
                                     List<Pair<Integer, Integer>> path = getAlignmentPath(n, j);
@@ -74,13 +73,9 @@ public class DTWPFImpute {
                         for (int k : missing) {
                             double weightedSum = 0;
                             double totalWeight = 0;
-                            Map<Integer, Double> neighbors = AppContext.useSparseProximities
-                                    ? AppContext.training_proximities_sparse.get(n)
-                                    : convertDenseRowToMap(AppContext.training_proximities[n]);
-
-                            for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                int j = entry.getKey();
-                                double weight = entry.getValue();
+                            for (int p = P.rowStart(n); p < P.rowEnd(n); p++) {
+                                int j = P.colIndex(p);
+                                double weight = P.value(p);
                                 double[] otherRow = (double[]) rawData.get(j);
 
                                 List<Pair<Integer, Integer>> path = getAlignmentPath(n, j);
@@ -106,6 +101,9 @@ public class DTWPFImpute {
     public static void testNumericImpute(ListObjectDataset testData, ListObjectDataset trainData) {
         List<Object> testRaw = testData.getData();
         List<Object> trainRaw = trainData.getData();
+        SparseProximityMatrix P = PFGAP.sparseProximitiesInUse()
+                ? AppContext.testing_training_proximities_sparse
+                : SparseProximityMatrix.fromDense(AppContext.testing_training_proximities, EPSILON);
 
         if (testData.getMissingIndices().is2D()) {
             List<List<List<Integer>>> missingIndices2D = testData.getMissingIndices().indices2D;
@@ -122,13 +120,9 @@ public class DTWPFImpute {
                             for (int k : missing) {
                                 double weightedSum = 0;
                                 double totalWeight = 0;
-                                Map<Integer, Double> neighbors = AppContext.useSparseProximities
-                                        ? AppContext.testing_training_proximities_sparse.get(j)
-                                        : convertDenseRowToMap(AppContext.testing_training_proximities[j]);
-
-                                for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                    int n = entry.getKey(); // train index
-                                    double weight = entry.getValue();
+                                for (int p = P.rowStart(j); p < P.rowEnd(j); p++) {
+                                    int n = P.colIndex(p); // train index
+                                    double weight = P.value(p);
                                     double[][] trainMatrix = (double[][]) trainRaw.get(n);
 
                                     List<Pair<Integer, Integer>> path = getAlignmentPath(j, n);
@@ -162,13 +156,9 @@ public class DTWPFImpute {
                         for (int k : missing) {
                             double weightedSum = 0;
                             double totalWeight = 0;
-                            Map<Integer, Double> neighbors = AppContext.useSparseProximities
-                                    ? AppContext.testing_training_proximities_sparse.get(j)
-                                    : convertDenseRowToMap(AppContext.testing_training_proximities[j]);
-
-                            for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                int n = entry.getKey(); // train index
-                                double weight = entry.getValue();
+                            for (int p = P.rowStart(j); p < P.rowEnd(j); p++) {
+                                int n = P.colIndex(p); // train index
+                                double weight = P.value(p);
                                 double[] trainRow = (double[]) trainRaw.get(n);
 
                                 List<Pair<Integer, Integer>> path = getAlignmentPath(j, n);
@@ -191,16 +181,6 @@ public class DTWPFImpute {
         }
     }
 
-    private static Map<Integer, Double> convertDenseRowToMap(double[] row) {
-        Map<Integer, Double> map = new HashMap<>();
-        for (int i = 0; i < row.length; i++) {
-            if (row[i] > EPSILON) {
-                map.put(i, row[i]);
-            }
-        }
-        return map;
-    }
-
     private static List<Pair<Integer, Integer>> getAlignmentPath(int i, int j) {
         return alignmentPaths.getOrDefault(i, Collections.emptyMap()).getOrDefault(j, Collections.emptyList());
     }
@@ -245,7 +225,7 @@ public class DTWPFImpute {
     public static void buildAlignmentPathCache(
             ListObjectDataset dataA,
             ListObjectDataset dataB,
-            Map<Integer, Map<Integer, Double>> sparseProximities,
+            SparseProximityMatrix sparseProximities,
             boolean is2D,
             int windowSize
     ) {
@@ -258,12 +238,9 @@ public class DTWPFImpute {
         alignmentPaths = new HashMap<>();
 
         for (int i = 0; i < sizeA; i++) {
-            Map<Integer, Double> row = sparseProximities.get(i);
-            if (row == null) continue;
-
-            for (Map.Entry<Integer, Double> entry : row.entrySet()) {
-                int j = entry.getKey();
-                double proximity = entry.getValue();
+            for (int p = sparseProximities.rowStart(i); p < sparseProximities.rowEnd(i); p++) {
+                int j = sparseProximities.colIndex(p);
+                double proximity = sparseProximities.value(p);
 
                 if (i == j && dataA == dataB) continue;
                 if (proximity <= EPSILON) continue;
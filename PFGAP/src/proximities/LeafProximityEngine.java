@@ -0,0 +1,219 @@
+package proximities;
+
+import trees.ProximityForest;
+import trees.ProximityTree;
+import trees.TestLeaves;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes PF-GAP proximities by walking each tree once instead of asking every (i, j) pair
+ * to rescan all trees and leaves (see {@link PFGAP#ForestProximity}).
+ *
+ * For every tree we record which leaf each query sample lands in, and for every leaf its distinct
+ * in-bag members together with the weight c_j / |M_i| (in-bag multiplicity over leaf in-bag size).
+ * A proximity row is then the sum of those weights over the trees the sample is routed through,
+ * so only the nonzero (i, j) contributions are ever touched.
+ */
+public class LeafProximityEngine {
+
+    /** Leaf bookkeeping of one tree, flattened into primitive arrays. */
+    public static class TreeLeafIndex {
+        final int[] leafOf;       // query sample -> leaf number, -1 if the sample never reached a leaf
+        final int[][] members;    // leaf number -> distinct in-bag training indices
+        final double[][] weights; // leaf number -> multiplicity / leaf in-bag size, aligned with members
+
+        TreeLeafIndex(int[] leafOf, int[][] members, double[][] weights) {
+            this.leafOf = leafOf;
+            this.members = members;
+            this.weights = weights;
+        }
+    }
+
+    private final TreeLeafIndex[] trees;
+    private final double[] treeCounts; // |S_i|: number of trees each query sample is scored against
+    private final int numColumns;
+
+    private LeafProximityEngine(TreeLeafIndex[] trees, double[] treeCounts, int numColumns) {
+        this.trees = trees;
+        this.treeCounts = treeCounts;
+        this.numColumns = numColumns;
+    }
+
+    /**
+     * Engine for the N x N training proximities: sample i is scored against the trees for which it is out-of-bag.
+     */
+    public static LeafProximityEngine forTraining(ProximityForest forest, int numTrain) {
+        ProximityTree[] forestTrees = forest.getTrees();
+        TreeLeafIndex[] index = new TreeLeafIndex[forestTrees.length];
+        double[] counts = new double[numTrain];
+        boolean[] seen = new boolean[numTrain];
+
+        for (int t = 0; t < forestTrees.length; t++) {
+            ProximityTree tree = forestTrees[t];
+            if (tree.isOutOfBagReleased()) {
+                // its leaves are only in the accumulator of the training run, which is not saved with the model
+                throw new IllegalStateException("tree " + t + " dropped its out-of-bag indices after training with "
+                        + "-incrementalProx, and no matching proximity accumulator is available; compute the training "
+                        + "proximities in the run that trains the forest, or train with -incrementalProx=false");
+            }
+            for (int i : tree.getRootNode().getOutOfBagIndices()) {
+                counts[i]++;
+            }
+            index[t] = buildIndex(tree, numTrain, seen, null, -1);
+        }
+        return new LeafProximityEngine(index, counts, numTrain);
+    }
+
+    /**
+     * Engine for the K x N test/train proximities: every test sample is scored against every tree,
+     * using the leaves recorded for it in leaves during prediction.
+     */
+    public static LeafProximityEngine forTesting(ProximityForest forest, TestLeaves leaves, int numTrain) {
+        ProximityTree[] forestTrees = forest.getTrees();
+        TreeLeafIndex[] index = new TreeLeafIndex[forestTrees.length];
+        double[] counts = new double[leaves.numQueries()];
+        Arrays.fill(counts, forestTrees.length);
+        boolean[] seen = new boolean[numTrain];
+
+        for (int t = 0; t < forestTrees.length; t++) {
+            index[t] = buildIndex(forestTrees[t], leaves.numQueries(), seen, leaves, t);
+        }
+        return new LeafProximityEngine(index, counts, numTrain);
+    }
+
+    /**
+     * Flattens the leaves of one tree. Query samples are placed by their out-of-bag membership, or by the leaves
+     * recorded for tree number t in test if that is non-null.
+     */
+    static TreeLeafIndex buildIndex(ProximityTree tree, int numRows, boolean[] seen, TestLeaves test, int t) {
+        ArrayList<ProximityTree.Node> leaves = tree.getLeaves();
+        int[] multiplicities = tree.getRootNode().getMultiplicities();
+
+        int[] leafOf = new int[numRows];
+        Arrays.fill(leafOf, -1);
+        int[][] members = new int[leaves.size()][];
+        double[][] weights = new double[leaves.size()][];
+        int[] buffer = new int[seen.length];
+        Map<ProximityTree.Node, Integer> leafNumbers = test == null ? null : new IdentityHashMap<>();
+
+        for (int l = 0; l < leaves.size(); l++) {
+            ProximityTree.Node leaf = leaves.get(l);
+            if (test == null) {
+                for (int i : leaf.getOutOfBagIndices()) {
+                    if (i < numRows) {
+                        leafOf[i] = l; // as in getJi, the last leaf holding the sample wins
+                    }
+                }
+            } else {
+                leafNumbers.put(leaf, l);
+            }
+
+            // the in-bag list keeps bootstrap duplicates, so its size is |M_i| while seen dedupes members
+            ArrayList<Integer> inBag = leaf.getInBagIndices();
+            int count = 0;
+            for (int j : inBag) {
+                if (!seen[j]) {
+                    seen[j] = true;
+                    buffer[count++] = j;
+                }
+            }
+            members[l] = Arrays.copyOf(buffer, count);
+            weights[l] = new double[count];
+            for (int m = 0; m < count; m++) {
+                weights[l][m] = (double) multiplicities[buffer[m]] / inBag.size();
+            }
+            for (int m = 0; m < count; m++) {
+                seen[buffer[m]] = false;
+            }
+        }
+
+        if (test != null) {
+            for (int i = 0; i < numRows; i++) {
+                Integer l = leafNumbers.get(test.leaf(t, i));
+                if (l != null) {
+                    leafOf[i] = l;
+                }
+            }
+        }
+        return new TreeLeafIndex(leafOf, members, weights);
+    }
+
+    public int numRows() {
+        return treeCounts.length;
+    }
+
+    public int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Adds the proximities of query sample i into row (length numColumns()), which the caller must have zeroed.
+     * If touched is non-null, the columns written for the first time are appended to it and the new size returned;
+     * this lets sparse callers visit and reset only the nonzero entries.
+     */
+    public int accumulateRow(int i, double[] row, int[] touched) {
+        int numTouched = 0;
+        double si = treeCounts[i];
+        if (si == 0) {
+            return 0;
+        }
+        for (TreeLeafIndex tree : trees) {
+            int leaf = tree.leafOf[i];
+            if (leaf < 0) {
+                continue;
+            }
+            int[] cols = tree.members[leaf];
+            double[] w = tree.weights[leaf];
+            for (int m = 0; m < cols.length; m++) {
+                int j = cols[m];
+                if (touched != null && row[j] == 0) {
+                    touched[numTouched++] = j;
+                }
+                row[j] += w[m] / si;
+            }
+        }
+        return numTouched;
+    }
+
+    /**
+     * Collects the proximities of query sample i above the threshold: their columns, sorted, go to cols[0..n)
+     * and their values to vals[0..n), where n is returned. Scratch must be zeroed and is left zeroed again;
+     * all three buffers have length numColumns().
+     */
+    public int sparseRow(int i, double threshold, double[] scratch, int[] cols, double[] vals) {
+        int touched = accumulateRow(i, scratch, cols);
+        Arrays.sort(cols, 0, touched);
+        int n = 0;
+        for (int m = 0; m < touched; m++) {
+            int j = cols[m];
+            double v = scratch[j];
+            scratch[j] = 0;
+            if (v > threshold) {
+                cols[n] = j;
+                vals[n++] = v;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The number of proximities of query sample i above the threshold, as sparseRow would return, without sorting
+     * or copying them out. Scratch must be zeroed and is left zeroed again; touched is a buffer of numColumns().
+     */
+    public int sparseRowLength(int i, double threshold, double[] scratch, int[] touched) {
+        int numTouched = accumulateRow(i, scratch, touched);
+        int n = 0;
+        for (int m = 0; m < numTouched; m++) {
+            int j = touched[m];
+            if (scratch[j] > threshold) {
+                n++;
+            }
+            scratch[j] = 0;
+        }
+        return n;
+    }
+}
@@ -11,10 +11,10 @@ public class OutlierScorer {
             boolean parallel,
             Object[] ytrain,
             double[][] denseProximities,
-            Map<Integer, Map<Integer, Double>> sparseProximities
+            SparseProximityMatrix sparseProximities
     ) {
         if (useSparse) {
-            Map<Integer, Map<Integer, Double>> P = symmetrize ? symmetrizeSparse(sparseProximities) : sparseProximities;
+            SparseProximityMatrix P = symmetrize ? sparseProximities.symmetrize() : sparseProximities;
             return computeOutlierScoresSparse(P, ytrain, parallel);
         } else {
             double[][] P = symmetrize ? symmetrizeDense(denseProximities) : denseProximities;
@@ -33,22 +33,6 @@ public class OutlierScorer {
         return sym;
     }
 
-    private static Map<Integer, Map<Integer, Double>> symmetrizeSparse(Map<Integer, Map<Integer, Double>> P) {
-        Map<Integer, Map<Integer, Double>> sym = new HashMap<>();
-        for (Map.Entry<Integer, Map<Integer, Double>> entry : P.entrySet()) {
-            int i = entry.getKey();
-            for (Map.Entry<Integer, Double> inner : entry.getValue().entrySet()) {
-                int j = inner.getKey();
-                double pij = inner.getValue();
-                double pji = P.getOrDefault(j, Collections.emptyMap()).getOrDefault(i, 0.0);
-                double avg = 0.5 * (pij + pji);
-                sym.computeIfAbsent(i, k -> new HashMap<>()).put(j, avg);
-                sym.computeIfAbsent(j, k -> new HashMap<>()).put(i, avg);
-            }
-        }
-        return sym;
-    }
-
     private static double[] computeOutlierScoresDense(double[][] P, Object[] ytrain, boolean parallel) {
         int n = ytrain.length;
         Map<Object, List<Integer>> labelToIndices = groupByLabel(ytrain);
@@ -67,18 +51,18 @@ public class OutlierScorer {
         return normalizeScores(rawScores, ytrain, labelToIndices);
     }
 
-    private static double[] computeOutlierScoresSparse(Map<Integer, Map<Integer, Double>> P, Object[] ytrain, boolean parallel) {
+    private static double[] computeOutlierScoresSparse(SparseProximityMatrix P, Object[] ytrain, boolean parallel) {
         int n = ytrain.length;
         Map<Object, List<Integer>> labelToIndices = groupByLabel(ytrain);
 
         Double[] rawScores = (parallel ? IntStream.range(0, n).parallel() : IntStream.range(0, n))
                 .mapToObj(i -> {
-                    List<Integer> sameClass = labelToIndices.get(ytrain[i]);
                     double sum = 0.0;
-                    Map<Integer, Double> row = P.getOrDefault(i, Collections.emptyMap());
-                    for (int j : sameClass) {
-                        double val = row.getOrDefault(j, 0.0);
-                        sum += val * val;
+                    for (int p = P.rowStart(i); p < P.rowEnd(i); p++) {
+                        if (Objects.equals(ytrain[P.colIndex(p)], ytrain[i])) {
+                            double val = P.value(p);
+                            sum += val * val;
+                        }
                     }
                     if (sum == 0.0) sum = 1e-6;
                     return n / sum;
@@ -1,9 +1,12 @@
 package proximities;
 
 import core.AppContext;
+import core.WorkerPool;
+import core.contracts.ObjectDataset;
 import datasets.ListObjectDataset;
 import trees.ProximityForest;
 import trees.ProximityTree;
+import trees.TestLeaves;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -103,21 +106,9 @@ public class PFGAP{
         return Ji;
     }
 
-    public static ArrayList<Integer> getJiTest(Integer i, ProximityTree t){
-        ArrayList<Integer> Ji = new ArrayList<>();
-        ArrayList<ProximityTree.Node> leaves = t.getLeaves();
-        //System.out.println(leaves.size());
-        for (ProximityTree.Node leaf : leaves){
-            ArrayList<Integer> inbags = leaf.getInBagIndices();
-            ArrayList<Integer> test = leaf.TestIndices;
-            //System.out.println(oob);
-            //System.out.println(i);
-            if(test.contains(i)){
-                Ji = inbags;
-                //System.out.print(Ji);
-            }
-        }
-        return Ji;
+    public static ArrayList<Integer> getJiTest(Integer i, int t, TestLeaves test){
+        ProximityTree.Node leaf = test.leaf(t, i);
+        return leaf == null ? new ArrayList<>() : leaf.getInBagIndices();
     }
 
     // Here is the parallel code.
@@ -168,7 +159,7 @@ public class PFGAP{
         //Double[] terms = new Double[]{};
         ArrayList<Double> terms = new ArrayList<>();
         for (ProximityTree t : Si){
-            Integer cj = t.getRootNode().getMultiplicities().get(j);
+            int cj = t.getRootNode().getMultiplicities()[j];
             ArrayList<Integer> Mi = getJi(i,t);
             if (Mi.contains(j)){
                 double Cj = (double) cj;
@@ -189,9 +180,10 @@ public class PFGAP{
         ArrayList<ProximityTree> Si = getSiTest(i,pf);
         //Double[] terms = new Double[]{};
         ArrayList<Double> terms = new ArrayList<>();
-        for (ProximityTree t : Si){
-            Integer cj = t.getRootNode().getMultiplicities().get(j);
-            ArrayList<Integer> Mi = getJiTest(i,t);
+        for (int k = 0; k < Si.size(); k++){
+            ProximityTree t = Si.get(k);
+            int cj = t.getRootNode().getMultiplicities()[j];
+            ArrayList<Integer> Mi = getJiTest(i,k,pf.getTestLeaves());
             if (Mi.contains(j)){
                 double Cj = (double) cj;
                 terms.add((Cj/Mi.size())/ Si.size());
@@ -218,7 +210,7 @@ public class PFGAP{
 
             for (ProximityTree t : Si) {
                 futures.add(executor.submit(() -> {
-                    Integer cj = t.getRootNode().getMultiplicities().get(j);
+                    int cj = t.getRootNode().getMultiplicities()[j];
                     ArrayList<Integer> Mi = getJi(i, t);
                     if (Mi.contains(j)) {
                         double Cj = (double) cj;
@@ -240,7 +232,7 @@ public class PFGAP{
             executor.shutdown();
         } else {
             for (ProximityTree t : Si) {
-                Integer cj = t.getRootNode().getMultiplicities().get(j);
+                int cj = t.getRootNode().getMultiplicities()[j];
                 ArrayList<Integer> Mi = getJi(i, t);
                 if (Mi.contains(j)) {
                     double Cj = (double) cj;
@@ -260,172 +252,158 @@ public class PFGAP{
     }*/
 
 
-    public static void computeTrainProximities(ProximityForest forest, ListObjectDataset train_data) throws ExecutionException, InterruptedException {
+    public static void computeTrainProximities(ProximityForest forest, ObjectDataset train_data) throws ExecutionException, InterruptedException {
         int N = train_data.size();
-
-        if (AppContext.useSparseProximities) {
-            Map<Integer, Map<Integer, Double>> sparseP = new HashMap<>();
-
-            if (AppContext.parallelProx) {
-                ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<?>> futures = new ArrayList<>();
-
-                for (int k = 0; k < N; k++) {
-                    final int finalK = k;
-                    futures.add(executor.submit(() -> {
-                        Map<Integer, Double> rowMap = new HashMap<>();
-                        for (int j = 0; j < N; j++) {
-                            double prox = ForestProximity(finalK, j, forest);
-                            if (prox > 1e-6) {
-                                rowMap.put(j, prox);
-                            }
-                        }
-                        synchronized (sparseP) {
-                            sparseP.put(finalK, rowMap);
-                        }
-                    }));
-                }
-
-                for (Future<?> future : futures) {
-                    future.get();
-                }
-
-                executor.shutdown();
-
+        ProximityAccumulator accumulated = forest.getProximityAccumulator();
+        if (accumulated != null && accumulated.size() == N) {
+            // the trees already contributed their leaves while training (AppContext.incrementalProx)
+            SparseRowSource rows = (i, threshold, scratch, cols, vals) -> accumulated.sparseRow(i, threshold, cols, vals);
+            RowLengthSource lengths = (i, threshold, scratch, cols) -> accumulated.sparseRowLength(i, threshold);
+            if (AppContext.prox_topk > 0) {
+                storeTrainTopK(topKProximities(rows, N, N));
+            } else if (AppContext.useSparseProximities) {
+                AppContext.training_proximities_sparse = sparseProximities(rows, lengths, N, N);
             } else {
-                for (int k = 0; k < N; k++) {
-                    Map<Integer, Double> rowMap = new HashMap<>();
-                    for (int j = 0; j < N; j++) {
-                        double prox = ForestProximity(k, j, forest);
-                        if (prox > 1e-6) {
-                            rowMap.put(j, prox);
-                        }
-                    }
-                    sparseP.put(k, rowMap);
-                }
+                AppContext.training_proximities = accumulated.toDense();
             }
+            return;
+        }
 
-            AppContext.training_proximities_sparse = sparseP;
+        LeafProximityEngine engine = LeafProximityEngine.forTraining(forest, N);
 
+        if (AppContext.prox_topk > 0) {
+            storeTrainTopK(topKProximities(engine::sparseRow, N, N));
+        } else if (AppContext.useSparseProximities) {
+            AppContext.training_proximities_sparse = sparseProximities(engine::sparseRow, engine::sparseRowLength, engine.numRows(), engine.numColumns());
         } else {
-            double[][] PFGAP = new double[N][N];
-
-            if (AppContext.parallelProx) {
-                ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<?>> futures = new ArrayList<>();
-
-                for (int k = 0; k < N; k++) {
-                    final int finalK = k;
-                    futures.add(executor.submit(() -> {
-                        for (int j = 0; j < N; j++) {
-                            double prox = ForestProximity(finalK, j, forest);
-                            PFGAP[finalK][j] = prox;
-                        }
-                    }));
-                }
-
-                for (Future<?> future : futures) {
-                    future.get();
-                }
-
-                executor.shutdown();
-
-            } else {
-                for (int k = 0; k < N; k++) {
-                    for (int j = 0; j < N; j++) {
-                        double prox = ForestProximity(k, j, forest);
-                        PFGAP[k][j] = prox;
-                    }
-                }
-            }
-
-            AppContext.training_proximities = PFGAP;
+            AppContext.training_proximities = denseProximities(engine);
         }
     }
 
 
-    public static void computeTestTrainProximities(ProximityForest forest, ListObjectDataset test_data, ListObjectDataset train_data) throws ExecutionException, InterruptedException {
-        int N = train_data.size();
-        int K = test_data.size();
+    public static void computeTestTrainProximities(ProximityForest forest, ListObjectDataset test_data, ObjectDataset train_data) throws ExecutionException, InterruptedException {
+        // use the leaves recorded by forest.test when they belong to this test set, otherwise route it now
+        TestLeaves leaves = forest.getTestLeaves();
+        if (leaves == null || leaves.numQueries() != test_data.size()) {
+            leaves = forest.findLeaves(test_data);
+        }
+        LeafProximityEngine engine = LeafProximityEngine.forTesting(forest, leaves, train_data.size());
+
+        if (AppContext.prox_topk > 0) {
+            TopKProximities topk = topKProximities(engine::sparseRow, test_data.size(), train_data.size());
+            AppContext.testing_training_proximities_topk = topk;
+            AppContext.testing_training_proximities_sparse = topk.toSparse();
+        } else if (AppContext.useSparseProximities) {
+            AppContext.testing_training_proximities_sparse = sparseProximities(engine::sparseRow, engine::sparseRowLength, engine.numRows(), engine.numColumns());
+        } else {
+            AppContext.testing_training_proximities = denseProximities(engine);
+        }
+    }
 
-        if (AppContext.useSparseProximities) {
-            Map<Integer, Map<Integer, Double>> sparseP = new HashMap<>();
+    private static void storeTrainTopK(TopKProximities topk) {
+        AppContext.training_proximities_topk = topk;
+        AppContext.training_proximities_sparse = topk.toSparse();
+    }
 
-            if (AppContext.parallelProx) {
-                ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<?>> futures = new ArrayList<>();
-
-                for (int k = 0; k < K; k++) {
-                    final int finalK = k;
-                    futures.add(executor.submit(() -> {
-                        Map<Integer, Double> rowMap = new HashMap<>();
-                        for (int j = 0; j < N; j++) {
-                            double prox = ForestProximityTestTrain(finalK, j, forest);
-                            if (prox > 1e-6) {
-                                rowMap.put(j, prox);
-                            }
-                        }
-                        synchronized (sparseP) {
-                            sparseP.put(finalK, rowMap);
-                        }
-                    }));
-                }
+    /**
+     * Whether the proximities computed above are in the sparse fields rather than the dense ones. Top-k rows only
+     * exist in sparse form, so this holds under -prox_topk whatever AppContext.useSparseProximities says.
+     */
+    public static boolean sparseProximitiesInUse() {
+        return AppContext.useSparseProximities || AppContext.prox_topk > 0;
+    }
 
-                for (Future<?> future : futures) {
-                    future.get();
-                }
+    /** Produces the proximities of row i above threshold as sorted (cols, vals) pairs and returns their count. */
+    private interface SparseRowSource {
+        int row(int i, double threshold, double[] scratch, int[] cols, double[] vals);
+    }
 
-                executor.shutdown();
+    /** The number of proximities of row i above threshold, as SparseRowSource.row would return, without the row. */
+    private interface RowLengthSource {
+        int length(int i, double threshold, double[] scratch, int[] cols);
+    }
 
+    /**
+     * Runs block over the rows [0, K): in blocks on the shared WorkerPool with -parallelProx, and as a single block
+     * on the calling thread otherwise. Each block allocates its own scratch and output buffers once.
+     */
+    private static void forEachRowBlock(int K, WorkerPool.Block block) {
+        try {
+            if (AppContext.parallelProx) {
+                WorkerPool.forEachBlock(K, block);
             } else {
-                for (int k = 0; k < K; k++) {
-                    Map<Integer, Double> rowMap = new HashMap<>();
-                    for (int j = 0; j < N; j++) {
-                        double prox = ForestProximityTestTrain(k, j, forest);
-                        if (prox > 1e-6) {
-                            rowMap.put(j, prox);
-                        }
-                    }
-                    sparseP.put(k, rowMap);
-                }
+                block.run(0, K);
             }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            AppContext.testing_training_proximities_sparse = sparseP;
-
-        } else {
-            double[][] PFGAP = new double[K][N];
+    private static TopKProximities topKProximities(SparseRowSource source, int K, int N) {
+        TopKProximities topk = new TopKProximities(K, N, AppContext.prox_topk);
 
-            if (AppContext.parallelProx) {
-                ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-                List<Future<?>> futures = new ArrayList<>();
-
-                for (int k = 0; k < K; k++) {
-                    final int finalK = k;
-                    futures.add(executor.submit(() -> {
-                        for (int j = 0; j < N; j++) {
-                            double prox = ForestProximityTestTrain(finalK, j, forest);
-                            PFGAP[finalK][j] = prox;
-                        }
-                    }));
-                }
+        forEachRowBlock(K, (from, to) -> {
+            double[] scratch = new double[N];
+            int[] cols = new int[N];
+            double[] vals = new double[N];
+            for (int k = from; k < to; k++) {
+                int n = source.row(k, 1e-6, scratch, cols, vals);
+                topk.setRow(k, cols, vals, n);
+            }
+        });
+        return topk;
+    }
 
-                for (Future<?> future : futures) {
-                    future.get();
-                }
+    private static double[][] denseProximities(LeafProximityEngine engine) {
+        int K = engine.numRows();
+        int N = engine.numColumns();
+        double[][] PFGAP = new double[K][];
 
-                executor.shutdown();
+        // rows are allocated by the block that fills them, so each worker first-touches its own memory
+        forEachRowBlock(K, (from, to) -> {
+            for (int k = from; k < to; k++) {
+                PFGAP[k] = new double[N];
+                engine.accumulateRow(k, PFGAP[k], null);
+            }
+        });
+        return PFGAP;
+    }
 
-            } else {
-                for (int k = 0; k < K; k++) {
-                    for (int j = 0; j < N; j++) {
-                        double prox = ForestProximityTestTrain(k, j, forest);
-                        PFGAP[k][j] = prox;
-                    }
-                }
+    /**
+     * Two passes over the rows: the first only counts each row's nonzeros, so the CSR arrays are allocated once at
+     * their final size and the second pass writes every row straight to its place. No block holds more than the
+     * N-long buffers of the row it is working on.
+     */
+    private static SparseProximityMatrix sparseProximities(SparseRowSource source, RowLengthSource lengths, int K, int N) {
+        int[] rowLengths = new int[K];
+        forEachRowBlock(K, (from, to) -> {
+            double[] scratch = new double[N];
+            int[] cols = new int[N];
+            for (int k = from; k < to; k++) {
+                rowLengths[k] = lengths.length(k, 1e-6, scratch, cols);
             }
+        });
 
-            AppContext.testing_training_proximities = PFGAP;
+        int[] rowPtr = new int[K + 1];
+        for (int k = 0; k < K; k++) {
+            rowPtr[k + 1] = rowPtr[k] + rowLengths[k];
         }
+        int[] colIdx = new int[rowPtr[K]];
+        double[] values = new double[rowPtr[K]];
+
+        forEachRowBlock(K, (from, to) -> {
+            double[] scratch = new double[N];
+            int[] cols = new int[N];
+            double[] vals = new double[N];
+            for (int k = from; k < to; k++) {
+                int n = source.row(k, 1e-6, scratch, cols, vals);
+                System.arraycopy(cols, 0, colIdx, rowPtr[k], n);
+                System.arraycopy(vals, 0, values, rowPtr[k], n);
+            }
+        });
+        return new SparseProximityMatrix(K, N, rowPtr, colIdx, values);
     }
 
 
@@ -34,11 +34,11 @@ public class PFImpute {
                                 double weightedSum = 0;
                                 double totalWeight = 0;
 
-                                if (AppContext.useSparseProximities) {
-                                    Map<Integer, Double> neighbors = AppContext.training_proximities_sparse.get(n);
-                                    for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                        int j = entry.getKey();
-                                        double weight = entry.getValue();
+                                if (PFGAP.sparseProximitiesInUse()) {
+                                    SparseProximityMatrix P = AppContext.training_proximities_sparse;
+                                    for (int p = P.rowStart(n); p < P.rowEnd(n); p++) {
+                                        int j = P.colIndex(p);
+                                        double weight = P.value(p);
                                         double[][] otherMatrix = (double[][]) rawData.get(j);
                                         if (!missingIndices2D.get(j).get(i).contains(k)) {
                                             weightedSum += weight * otherMatrix[i][k];
@@ -84,11 +84,11 @@ public class PFImpute {
                             double weightedSum = 0;
                             double totalWeight = 0;
 
-                            if (AppContext.useSparseProximities) {
-                                Map<Integer, Double> neighbors = AppContext.training_proximities_sparse.get(n);
-                                for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                    int j = entry.getKey();
-                                    double weight = entry.getValue();
+                            if (PFGAP.sparseProximitiesInUse()) {
+                                SparseProximityMatrix P = AppContext.training_proximities_sparse;
+                                for (int p = P.rowStart(n); p < P.rowEnd(n); p++) {
+                                    int j = P.colIndex(p);
+                                    double weight = P.value(p);
                                     double[] otherRow = (double[]) rawData.get(j);
                                     if (!missingIndices1D.get(j).contains(k)) {
                                         weightedSum += weight * otherRow[k];
@@ -143,11 +143,11 @@ public class PFImpute {
                                 double weightedSum = 0;
                                 double totalWeight = 0;
 
-                                if (AppContext.useSparseProximities) {
-                                    Map<Integer, Double> neighbors = AppContext.testing_training_proximities_sparse.get(j);
-                                    for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                        int n = entry.getKey();
-                                        double weight = entry.getValue();
+                                if (PFGAP.sparseProximitiesInUse()) {
+                                    SparseProximityMatrix P = AppContext.testing_training_proximities_sparse;
+                                    for (int p = P.rowStart(j); p < P.rowEnd(j); p++) {
+                                        int n = P.colIndex(p);
+                                        double weight = P.value(p);
                                         double[][] trainMatrix = (double[][]) trainRaw.get(n);
                                         if (!trainData.getMissingIndices().indices2D.get(n).get(i).contains(k)) {
                                             weightedSum += weight * trainMatrix[i][k];
@@ -193,11 +193,11 @@ public class PFImpute {
                             double weightedSum = 0;
                             double totalWeight = 0;
 
-                            if (AppContext.useSparseProximities) {
-                                Map<Integer, Double> neighbors = AppContext.testing_training_proximities_sparse.get(j);
-                                for (Map.Entry<Integer, Double> entry : neighbors.entrySet()) {
-                                    int n = entry.getKey();
-                                    double weight = entry.getValue();
+                            if (PFGAP.sparseProximitiesInUse()) {
+                                SparseProximityMatrix P = AppContext.testing_training_proximities_sparse;
+                                for (int p = P.rowStart(j); p < P.rowEnd(j); p++) {
+                                    int n = P.colIndex(p);
+                                    double weight = P.value(p);
                                     double[] trainRow = (double[]) trainRaw.get(n);
                                     if (!trainData.getMissingIndices().indices1D.get(n).contains(k)) {
                                         weightedSum += weight * trainRow[k];
@@ -289,39 +289,22 @@ public class PFImpute {
 
     private static Object getWeightedMode(int targetIndex, int dim, int featureIndex, boolean is2D, ListObjectDataset data, boolean istrain) {
         Map<Object, Double> frequency = new HashMap<>();
-        Map<Integer, Double> proximities;
 
-        if (istrain) {
-            proximities = AppContext.useSparseProximities
-                    ? AppContext.training_proximities_sparse.getOrDefault(targetIndex, Collections.emptyMap())
-                    : convertDenseRowToMap(AppContext.training_proximities[targetIndex]);
-        } else {
-            proximities = AppContext.useSparseProximities
-                    ? AppContext.testing_training_proximities_sparse.getOrDefault(targetIndex, Collections.emptyMap())
-                    : convertDenseRowToMap(AppContext.testing_training_proximities[targetIndex]);
-        }
-
-        //Map<Integer, Double> proximities = AppContext.useSparseProximities
-        //        ? AppContext.training_proximities_sparse.getOrDefault(targetIndex, Collections.emptyMap())
-        //        : convertDenseRowToMap(AppContext.training_proximities[targetIndex]);
-
-        for (Map.Entry<Integer, Double> entry : proximities.entrySet()) {
-            int neighborIndex = entry.getKey();
-            double weight = entry.getValue();
-
-            Object neighbor = data.get_series(neighborIndex);
-            Object value;
-
-            if (is2D) {
-                Object[][] matrix = (Object[][]) neighbor;
-                value = matrix[dim][featureIndex];
-            } else {
-                Object[] row = (Object[]) neighbor;
-                value = row[featureIndex];
+        if (PFGAP.sparseProximitiesInUse()) {
+            SparseProximityMatrix P = istrain
+                    ? AppContext.training_proximities_sparse
+                    : AppContext.testing_training_proximities_sparse;
+            for (int p = P.rowStart(targetIndex); p < P.rowEnd(targetIndex); p++) {
+                addWeightedVote(frequency, data.get_series(P.colIndex(p)), dim, featureIndex, is2D, P.value(p));
             }
-
-            if (value != null) {
-                frequency.put(value, frequency.getOrDefault(value, 0.0) + weight);
+        } else {
+            double[] row = istrain
+                    ? AppContext.training_proximities[targetIndex]
+                    : AppContext.testing_training_proximities[targetIndex];
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != 0.0) {
+                    addWeightedVote(frequency, data.get_series(j), dim, featureIndex, is2D, row[j]);
+                }
             }
         }
 
@@ -331,27 +314,23 @@ public class PFImpute {
                 .orElse(null);
     }
 
-    private static Map<Integer, Double> convertDenseRowToMap(double[] row) {
-        Map<Integer, Double> map = new HashMap<>();
-        for (int i = 0; i < row.length; i++) {
-            if (row[i] != 0.0) {
-                map.put(i, row[i]);
-            }
+    private static void addWeightedVote(Map<Object, Double> frequency, Object neighbor, int dim, int featureIndex, boolean is2D, double weight) {
+        Object value;
+
+        if (is2D) {
+            Object[][] matrix = (Object[][]) neighbor;
+            value = matrix[dim][featureIndex];
+        } else {
+            Object[] row = (Object[]) neighbor;
+            value = row[featureIndex];
         }
-        return map;
-    }
 
-    public static Map<Integer, Map<Integer, Double>> buildSparseProximityMap(double[][] P, double epsilon) {
-        Map<Integer, Map<Integer, Double>> sparseMap = new HashMap<>();
-        for (int i = 0; i < P.length; i++) {
-            Map<Integer, Double> rowMap = new HashMap<>();
-            for (int j = 0; j < P[i].length; j++) {
-                if (P[i][j] > epsilon) {
-                    rowMap.put(j, P[i][j]);
-                }
-            }
-            sparseMap.put(i, rowMap);
+        if (value != null) {
+            frequency.put(value, frequency.getOrDefault(value, 0.0) + weight);
         }
-        return sparseMap;
+    }
+
+    public static SparseProximityMatrix buildSparseProximityMap(double[][] P, double epsilon) {
+        return SparseProximityMatrix.fromDense(P, epsilon);
     }
 }
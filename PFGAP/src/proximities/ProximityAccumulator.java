@@ -0,0 +1,177 @@
+package proximities;
+
+import trees.ProximityTree;
+
+import java.util.Arrays;
+
+/**
+ * Collects training proximities tree by tree while the forest is being trained.
+ *
+ * Each tree, once grown, adds the weights c_j / |M_i| of its leaves to the rows of the out-of-bag samples
+ * that landed in them, and bumps |S_i| for every sample it left out of bag. Rows are kept as small primitive
+ * hash rows and guarded by striped locks, so trees finishing on different threads rarely contend.
+ * The normalisation by |S_i| happens once, when the matrix is read out.
+ */
+public class ProximityAccumulator {
+
+    private static final int NUM_STRIPES = 64;
+
+    private final int numTrain;
+    private final SparseRow[] rows;
+    private final int[] treeCounts; // |S_i|
+    private final Object[] locks = new Object[NUM_STRIPES];
+
+    public ProximityAccumulator(int numTrain) {
+        this.numTrain = numTrain;
+        this.rows = new SparseRow[numTrain];
+        this.treeCounts = new int[numTrain];
+        for (int s = 0; s < NUM_STRIPES; s++) {
+            locks[s] = new Object();
+        }
+    }
+
+    public int size() {
+        return numTrain;
+    }
+
+    /**
+     * Adds the leaf co-membership contributions of a fully trained tree. Safe to call from several threads.
+     */
+    public void addTree(ProximityTree tree) {
+        LeafProximityEngine.TreeLeafIndex index =
+                LeafProximityEngine.buildIndex(tree, numTrain, new boolean[numTrain], null, -1);
+
+        for (int i : tree.getRootNode().getOutOfBagIndices()) {
+            int leaf = index.leafOf[i];
+            synchronized (locks[i % NUM_STRIPES]) {
+                treeCounts[i]++;
+                if (leaf < 0) {
+                    continue;
+                }
+                if (rows[i] == null) {
+                    rows[i] = new SparseRow(index.members[leaf].length);
+                }
+                rows[i].add(index.members[leaf], index.weights[leaf]);
+            }
+        }
+    }
+
+    /** Reads the accumulated proximities out as a dense N x N matrix. */
+    public double[][] toDense() {
+        double[][] P = new double[numTrain][numTrain];
+        for (int i = 0; i < numTrain; i++) {
+            SparseRow row = rows[i];
+            if (row == null || treeCounts[i] == 0) {
+                continue;
+            }
+            for (int s = 0; s < row.keys.length; s++) {
+                if (row.keys[s] != SparseRow.EMPTY) {
+                    P[i][row.keys[s]] = row.vals[s] / treeCounts[i];
+                }
+            }
+        }
+        return P;
+    }
+
+    /**
+     * Writes the normalised proximities of row i above threshold to cols[0..n) (sorted) and vals[0..n),
+     * returning n. Both buffers need room for size() entries.
+     */
+    public int sparseRow(int i, double threshold, int[] cols, double[] vals) {
+        SparseRow row = rows[i];
+        if (row == null || treeCounts[i] == 0) {
+            return 0;
+        }
+        int n = 0;
+        for (int key : row.keys) {
+            if (key != SparseRow.EMPTY) {
+                cols[n++] = key;
+            }
+        }
+        Arrays.sort(cols, 0, n);
+        int kept = 0;
+        for (int m = 0; m < n; m++) {
+            double v = row.get(cols[m]) / treeCounts[i];
+            if (v > threshold) {
+                cols[kept] = cols[m];
+                vals[kept++] = v;
+            }
+        }
+        return kept;
+    }
+
+    /** The number of entries of row i above threshold, as sparseRow would return. */
+    public int sparseRowLength(int i, double threshold) {
+        SparseRow row = rows[i];
+        if (row == null || treeCounts[i] == 0) {
+            return 0;
+        }
+        int n = 0;
+        for (int s = 0; s < row.keys.length; s++) {
+            if (row.keys[s] != SparseRow.EMPTY && row.vals[s] / treeCounts[i] > threshold) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Open-addressing int -> double map holding the unnormalised proximities of one row. */
+    static class SparseRow {
+        static final int EMPTY = -1;
+
+        int[] keys;
+        double[] vals;
+        int size;
+
+        SparseRow(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+            keys = new int[capacity];
+            vals = new double[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        void add(int[] cols, double[] weights) {
+            if ((size + cols.length) * 2 > keys.length) {
+                rehash(Integer.highestOneBit((size + cols.length) * 2) << 1);
+            }
+            for (int m = 0; m < cols.length; m++) {
+                int s = slot(cols[m]);
+                if (keys[s] == EMPTY) {
+                    keys[s] = cols[m];
+                    size++;
+                }
+                vals[s] += weights[m];
+            }
+        }
+
+        double get(int col) {
+            int s = slot(col);
+            return keys[s] == EMPTY ? 0.0 : vals[s];
+        }
+
+        private int slot(int col) {
+            int mask = keys.length - 1;
+            int h = col * 0x9E3779B9;
+            int s = (h ^ (h >>> 16)) & mask;
+            while (keys[s] != EMPTY && keys[s] != col) {
+                s = (s + 1) & mask;
+            }
+            return s;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            double[] oldVals = vals;
+            keys = new int[capacity];
+            vals = new double[capacity];
+            Arrays.fill(keys, EMPTY);
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldKeys[s] != EMPTY) {
+                    int t = slot(oldKeys[s]);
+                    keys[t] = oldKeys[s];
+                    vals[t] = oldVals[s];
+                }
+            }
+        }
+    }
+}
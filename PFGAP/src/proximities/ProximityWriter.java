@@ -0,0 +1,145 @@
+package proximities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes proximity matrices as little-endian NumPy .npy files, streaming rows through a FileChannel
+ * instead of building one huge string with ArrayUtils.toString.
+ *
+ * The files can be opened on the Python side without parsing, e.g. np.load(path, mmap_mode="r").
+ * A CSR matrix is written as three files, name_indptr.npy, name_indices.npy and name_data.npy, which
+ * scipy.sparse.csr_matrix((data, indices, indptr)) accepts directly.
+ */
+public class ProximityWriter {
+
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private ProximityWriter() {
+    }
+
+    /** Writes a dense K x N matrix as float64, or float32 if requested. */
+    public static void writeDense(String path, double[][] P, boolean float32) throws IOException {
+        int numCols = P.length == 0 ? 0 : P[0].length;
+        try (NpyOutput out = new NpyOutput(path, float32 ? "<f4" : "<f8", P.length, numCols)) {
+            for (double[] row : P) {
+                for (double v : row) {
+                    out.putReal(v, float32);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the top-k rows as path + "_indices.npy" (int32, -1 padded) and path + "_weights.npy" (0 padded).
+     */
+    public static void writeTopK(String path, TopKProximities topk, boolean float32) throws IOException {
+        int k = topk.k();
+        try (NpyOutput out = new NpyOutput(path + "_indices.npy", "<i4", topk.numRows(), k)) {
+            for (int i = 0; i < topk.numRows(); i++) {
+                for (int r = 0; r < k; r++) {
+                    out.putInt(r < topk.count(i) ? topk.index(i, r) : -1);
+                }
+            }
+        }
+        try (NpyOutput out = new NpyOutput(path + "_weights.npy", float32 ? "<f4" : "<f8", topk.numRows(), k)) {
+            for (int i = 0; i < topk.numRows(); i++) {
+                for (int r = 0; r < k; r++) {
+                    out.putReal(r < topk.count(i) ? topk.weight(i, r) : 0.0, float32);
+                }
+            }
+        }
+    }
+
+    /** Writes a CSR matrix as path + "_indptr.npy", path + "_indices.npy" and path + "_data.npy". */
+    public static void writeSparse(String path, SparseProximityMatrix P, boolean float32) throws IOException {
+        try (NpyOutput out = new NpyOutput(path + "_indptr.npy", "<i4", P.numRows() + 1)) {
+            out.putInt(0);
+            for (int i = 0; i < P.numRows(); i++) {
+                out.putInt(P.rowEnd(i));
+            }
+        }
+        try (NpyOutput out = new NpyOutput(path + "_indices.npy", "<i4", P.nnz())) {
+            for (int p = 0; p < P.nnz(); p++) {
+                out.putInt(P.colIndex(p));
+            }
+        }
+        try (NpyOutput out = new NpyOutput(path + "_data.npy", float32 ? "<f4" : "<f8", P.nnz())) {
+            for (int p = 0; p < P.nnz(); p++) {
+                out.putReal(P.value(p), float32);
+            }
+        }
+    }
+
+    /** An .npy file being filled in C order through a reusable direct buffer. */
+    private static class NpyOutput implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        NpyOutput(String path, String descr, int... shape) throws IOException {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeHeader(descr, shape);
+        }
+
+        private void writeHeader(String descr, int[] shape) throws IOException {
+            StringBuilder dims = new StringBuilder();
+            for (int d : shape) {
+                dims.append(d).append(", ");
+            }
+            // numpy writes (n,) for one dimension and (r, c) for two
+            String shapeText = shape.length == 1 ? "(" + shape[0] + ",)" : "(" + dims.substring(0, dims.length() - 2) + ")";
+            StringBuilder header = new StringBuilder("{'descr': '" + descr + "', 'fortran_order': False, 'shape': " + shapeText + ", }");
+            // magic (6) + version (2) + length (2) + header + '\n' is padded to a multiple of 64 bytes
+            while ((10 + header.length() + 1) % 64 != 0) {
+                header.append(' ');
+            }
+            header.append('\n');
+
+            buffer.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+            buffer.put((byte) 1).put((byte) 0);
+            buffer.putShort((short) header.length());
+            buffer.put(header.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void putReal(double v, boolean float32) throws IOException {
+            if (buffer.remaining() < Double.BYTES) {
+                flush();
+            }
+            if (float32) {
+                buffer.putFloat((float) v);
+            } else {
+                buffer.putDouble(v);
+            }
+        }
+
+        void putInt(int v) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(v);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
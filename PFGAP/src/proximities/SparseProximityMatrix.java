@@ -0,0 +1,199 @@
+package proximities;
+
+import java.util.Arrays;
+
+/**
+ * Proximity matrix in compressed sparse row (CSR) form.
+ *
+ * The nonzeros of row i are stored at positions rowPtr[i] .. rowPtr[i+1]-1 of colIdx / values,
+ * with column indices sorted ascending within each row. Rows are iterated as
+ * <pre>
+ *     for (int p = P.rowStart(i); p < P.rowEnd(i); p++) {
+ *         int j = P.colIndex(p);
+ *         double v = P.value(p);
+ *     }
+ * </pre>
+ * which costs 12 bytes per nonzero instead of the boxed entries of a Map&lt;Integer, Map&lt;Integer, Double&gt;&gt;.
+ */
+public class SparseProximityMatrix {
+
+    private final int numRows;
+    private final int numCols;
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final double[] values;
+
+    public SparseProximityMatrix(int numRows, int numCols, int[] rowPtr, int[] colIdx, double[] values) {
+        if (rowPtr.length != numRows + 1 || colIdx.length != values.length || rowPtr[numRows] != colIdx.length) {
+            throw new IllegalArgumentException("Inconsistent CSR arrays");
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    /**
+     * Assembles a matrix from per-row column/value arrays. Columns of each row must already be sorted.
+     */
+    public static SparseProximityMatrix fromRows(int numCols, int[][] rowCols, double[][] rowVals) {
+        int numRows = rowCols.length;
+        int[] rowPtr = new int[numRows + 1];
+        for (int i = 0; i < numRows; i++) {
+            rowPtr[i + 1] = rowPtr[i] + rowCols[i].length;
+        }
+        int[] colIdx = new int[rowPtr[numRows]];
+        double[] values = new double[rowPtr[numRows]];
+        for (int i = 0; i < numRows; i++) {
+            System.arraycopy(rowCols[i], 0, colIdx, rowPtr[i], rowCols[i].length);
+            System.arraycopy(rowVals[i], 0, values, rowPtr[i], rowVals[i].length);
+        }
+        return new SparseProximityMatrix(numRows, numCols, rowPtr, colIdx, values);
+    }
+
+    /**
+     * Keeps the entries of a dense matrix that are strictly greater than threshold.
+     */
+    public static SparseProximityMatrix fromDense(double[][] P, double threshold) {
+        int numRows = P.length;
+        int numCols = numRows == 0 ? 0 : P[0].length;
+        int[] rowPtr = new int[numRows + 1];
+        for (int i = 0; i < numRows; i++) {
+            int count = 0;
+            for (double v : P[i]) {
+                if (v > threshold) count++;
+            }
+            rowPtr[i + 1] = rowPtr[i] + count;
+        }
+        int[] colIdx = new int[rowPtr[numRows]];
+        double[] values = new double[rowPtr[numRows]];
+        for (int i = 0; i < numRows; i++) {
+            int p = rowPtr[i];
+            for (int j = 0; j < P[i].length; j++) {
+                if (P[i][j] > threshold) {
+                    colIdx[p] = j;
+                    values[p++] = P[i][j];
+                }
+            }
+        }
+        return new SparseProximityMatrix(numRows, numCols, rowPtr, colIdx, values);
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numCols() {
+        return numCols;
+    }
+
+    public int nnz() {
+        return colIdx.length;
+    }
+
+    public int rowStart(int i) {
+        return rowPtr[i];
+    }
+
+    public int rowEnd(int i) {
+        return rowPtr[i + 1];
+    }
+
+    public int colIndex(int p) {
+        return colIdx[p];
+    }
+
+    public double value(int p) {
+        return values[p];
+    }
+
+    /** Entry (i, j), or 0 if it is not stored. */
+    public double get(int i, int j) {
+        int p = Arrays.binarySearch(colIdx, rowPtr[i], rowPtr[i + 1], j);
+        return p >= 0 ? values[p] : 0.0;
+    }
+
+    public double[] denseRow(int i) {
+        double[] row = new double[numCols];
+        for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+            row[colIdx[p]] = values[p];
+        }
+        return row;
+    }
+
+    public double[][] toDense() {
+        double[][] P = new double[numRows][];
+        for (int i = 0; i < numRows; i++) {
+            P[i] = denseRow(i);
+        }
+        return P;
+    }
+
+    public SparseProximityMatrix transpose() {
+        int[] tRowPtr = new int[numCols + 1];
+        for (int j : colIdx) {
+            tRowPtr[j + 1]++;
+        }
+        for (int j = 0; j < numCols; j++) {
+            tRowPtr[j + 1] += tRowPtr[j];
+        }
+        int[] next = Arrays.copyOf(tRowPtr, numCols);
+        int[] tColIdx = new int[colIdx.length];
+        double[] tValues = new double[values.length];
+        // rows are visited in order, so the columns of the transpose come out sorted
+        for (int i = 0; i < numRows; i++) {
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                int q = next[colIdx[p]]++;
+                tColIdx[q] = i;
+                tValues[q] = values[p];
+            }
+        }
+        return new SparseProximityMatrix(numCols, numRows, tRowPtr, tColIdx, tValues);
+    }
+
+    /**
+     * Returns 0.5 * (P + P^T) over the union of both sparsity patterns. The matrix must be square.
+     */
+    public SparseProximityMatrix symmetrize() {
+        if (numRows != numCols) {
+            throw new IllegalStateException("Only square proximity matrices can be symmetrized");
+        }
+        SparseProximityMatrix T = transpose();
+        int[] sRowPtr = new int[numRows + 1];
+        for (int i = 0; i < numRows; i++) {
+            sRowPtr[i + 1] = sRowPtr[i] + mergedRowLength(this, T, i);
+        }
+        int[] sColIdx = new int[sRowPtr[numRows]];
+        double[] sValues = new double[sRowPtr[numRows]];
+        for (int i = 0; i < numRows; i++) {
+            int a = rowPtr[i], aEnd = rowPtr[i + 1];
+            int b = T.rowPtr[i], bEnd = T.rowPtr[i + 1];
+            int q = sRowPtr[i];
+            while (a < aEnd || b < bEnd) {
+                int ja = a < aEnd ? colIdx[a] : Integer.MAX_VALUE;
+                int jb = b < bEnd ? T.colIdx[b] : Integer.MAX_VALUE;
+                double va = 0.0, vb = 0.0;
+                int j = Math.min(ja, jb);
+                if (ja == j) va = values[a++];
+                if (jb == j) vb = T.values[b++];
+                sColIdx[q] = j;
+                sValues[q++] = 0.5 * (va + vb);
+            }
+        }
+        return new SparseProximityMatrix(numRows, numCols, sRowPtr, sColIdx, sValues);
+    }
+
+    private static int mergedRowLength(SparseProximityMatrix A, SparseProximityMatrix B, int i) {
+        int a = A.rowPtr[i], aEnd = A.rowPtr[i + 1];
+        int b = B.rowPtr[i], bEnd = B.rowPtr[i + 1];
+        int count = 0;
+        while (a < aEnd && b < bEnd) {
+            int ja = A.colIdx[a], jb = B.colIdx[b];
+            if (ja <= jb) a++;
+            if (jb <= ja) b++;
+            count++;
+        }
+        return count + (aEnd - a) + (bEnd - b);
+    }
+}
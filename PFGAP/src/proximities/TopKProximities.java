@@ -0,0 +1,158 @@
+package proximities;
+
+/**
+ * The k strongest proximities of every row, stored as flat N x k index/weight arrays
+ * (row i occupies positions i*k .. i*k + count(i) - 1, ordered by decreasing weight).
+ *
+ * Rows are selected with a bounded primitive min-heap, so memory stays O(N * k) however dense
+ * the full proximity matrix would be.
+ */
+public class TopKProximities {
+
+    private final int numRows;
+    private final int numCols;
+    private final int k;
+    private final int[] indices;
+    private final double[] weights;
+    private final int[] counts;
+
+    public TopKProximities(int numRows, int numCols, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        // a row never holds more neighbours than there are columns
+        k = Math.min(k, numCols);
+        long size = (long) numRows * k;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("-prox_topk=" + k + " over " + numRows + " rows needs " + size
+                    + " entries, more than a Java array can hold; use a smaller -prox_topk");
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.k = k;
+        this.indices = new int[(int) size];
+        this.weights = new double[(int) size];
+        this.counts = new int[numRows];
+    }
+
+    /**
+     * Keeps the k largest of the n entries (cols, vals) as row i. Different rows may be set concurrently.
+     */
+    public void setRow(int i, int[] cols, double[] vals, int n) {
+        int base = i * k;
+        int size = 0;
+        for (int m = 0; m < n; m++) {
+            if (size < k) {
+                // sift up
+                int c = size++;
+                while (c > 0) {
+                    int parent = (c - 1) >> 1;
+                    if (weights[base + parent] <= vals[m]) break;
+                    indices[base + c] = indices[base + parent];
+                    weights[base + c] = weights[base + parent];
+                    c = parent;
+                }
+                indices[base + c] = cols[m];
+                weights[base + c] = vals[m];
+            } else if (vals[m] > weights[base]) {
+                siftDown(base, size, cols[m], vals[m]);
+            }
+        }
+        // heap sort: popping the minimum into the tail leaves the row in decreasing order
+        for (int last = size - 1; last > 0; last--) {
+            int minIdx = indices[base];
+            double minW = weights[base];
+            siftDown(base, last, indices[base + last], weights[base + last]);
+            indices[base + last] = minIdx;
+            weights[base + last] = minW;
+        }
+        counts[i] = size;
+    }
+
+    private void siftDown(int base, int size, int idx, double w) {
+        int c = 0;
+        while (true) {
+            int child = 2 * c + 1;
+            if (child >= size) break;
+            if (child + 1 < size && weights[base + child + 1] < weights[base + child]) child++;
+            if (w <= weights[base + child]) break;
+            indices[base + c] = indices[base + child];
+            weights[base + c] = weights[base + child];
+            c = child;
+        }
+        indices[base + c] = idx;
+        weights[base + c] = w;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numCols() {
+        return numCols;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int count(int i) {
+        return counts[i];
+    }
+
+    /** Column of the r-th strongest proximity of row i (r < count(i)). */
+    public int index(int i, int r) {
+        return indices[i * k + r];
+    }
+
+    public double weight(int i, int r) {
+        return weights[i * k + r];
+    }
+
+    /** N x k neighbour indices, padded with -1 where a row has fewer than k nonzero proximities. */
+    public int[][] indicesArray() {
+        int[][] out = new int[numRows][k];
+        for (int i = 0; i < numRows; i++) {
+            for (int r = 0; r < k; r++) {
+                out[i][r] = r < counts[i] ? indices[i * k + r] : -1;
+            }
+        }
+        return out;
+    }
+
+    /** N x k neighbour weights, padded with 0 where a row has fewer than k nonzero proximities. */
+    public double[][] weightsArray() {
+        double[][] out = new double[numRows][k];
+        for (int i = 0; i < numRows; i++) {
+            System.arraycopy(weights, i * k, out[i], 0, counts[i]);
+        }
+        return out;
+    }
+
+    /** The same entries as a CSR matrix, so the existing sparse consumers can use them directly. */
+    public SparseProximityMatrix toSparse() {
+        int[][] rowCols = new int[numRows][];
+        double[][] rowVals = new double[numRows][];
+        for (int i = 0; i < numRows; i++) {
+            int n = counts[i];
+            int[] cols = new int[n];
+            double[] vals = new double[n];
+            // insertion sort by column; rows hold at most k entries
+            for (int r = 0; r < n; r++) {
+                int col = indices[i * k + r];
+                double w = weights[i * k + r];
+                int c = r;
+                while (c > 0 && cols[c - 1] > col) {
+                    cols[c] = cols[c - 1];
+                    vals[c] = vals[c - 1];
+                    c--;
+                }
+                cols[c] = col;
+                vals[c] = w;
+            }
+            rowCols[i] = cols;
+            rowVals[i] = vals;
+        }
+        return SparseProximityMatrix.fromRows(numCols, rowCols, rowVals);
+    }
+}
@@ -25,4 +25,18 @@ public class Entropy {
         return entropy;
     }
 
+    /** Entropy of the class counts counts[from, from + numClasses), which add up to total. */
+    public static double compute(int[] counts, int from, int numClasses, int total) {
+        if (total == 0) return 0.0;
+
+        double entropy = 0.0;
+        for (int c = from; c < from + numClasses; c++) {
+            if (counts[c] > 0) {
+                double p = (double) counts[c] / total;
+                entropy -= p * Math.log(p) / Math.log(2); // log base 2
+            }
+        }
+        return entropy;
+    }
+
 }
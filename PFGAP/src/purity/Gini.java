@@ -20,6 +20,18 @@ public class Gini {
         return 1 - sum;
     }
 
+    /** Gini impurity of the class counts counts[from, from + numClasses), which add up to total. */
+    public static double compute(int[] counts, int from, int numClasses, int total) {
+        double sum = 0;
+        for (int c = from; c < from + numClasses; c++) {
+            if (counts[c] > 0) {
+                double p = (double) counts[c] / total;
+                sum += p * p;
+            }
+        }
+        return 1 - sum;
+    }
+
 
 
 }
@@ -0,0 +1,204 @@
+package purity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The labels of one node in primitive form, converted once so that every candidate split of the node is scored
+ * without boxing or hashing: class codes for gini and entropy, numeric targets for variance and mad.
+ *
+ * Class codes are the labels themselves when they are non-negative Integers (as they are after
+ * reorder_class_labels), and codes in order of first appearance otherwise. Labels that do not fit the measure
+ * (variance of non-numeric labels) are scored from the boxed list, as {@link Purity#compute} does.
+ */
+public final class Labels {
+
+    // the largest Integer label used directly as a class code; larger labels are mapped to compact codes
+    private static final int MAX_DIRECT_CODE = 1 << 16;
+
+    private final String method;
+    private final int size;
+    private final int[] codes;      // class code of each label, for gini and entropy
+    private final int numClasses;
+    private final double[] values;  // numeric value of each label, for variance and mad
+    private final List<Object> boxed;
+
+    private Labels(String method, List<Object> labels) {
+        this.method = method.toLowerCase();
+        this.size = labels.size();
+        int[] codes = null;
+        int numClasses = 0;
+        double[] values = null;
+        List<Object> boxed = null;
+
+        switch (this.method) {
+            case "gini":
+            case "entropy":
+                codes = new int[size];
+                numClasses = directCodes(labels, codes);
+                if (numClasses < 0) {
+                    numClasses = mappedCodes(labels, codes);
+                }
+                break;
+            case "variance":
+            case "mad":
+                values = new double[size];
+                for (int i = 0; i < size && values != null; i++) {
+                    Object label = labels.get(i);
+                    if (label instanceof Number) {
+                        values[i] = ((Number) label).doubleValue();
+                    } else {
+                        values = null;
+                        boxed = new ArrayList<>(labels);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown purity method: " + method);
+        }
+        this.codes = codes;
+        this.numClasses = numClasses;
+        this.values = values;
+        this.boxed = boxed;
+    }
+
+    public static Labels of(String method, List<Object> labels) {
+        return new Labels(method, labels);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Impurity of all the labels. */
+    public double purity() {
+        if (codes != null) {
+            int[] counts = new int[numClasses];
+            for (int code : codes) {
+                counts[code]++;
+            }
+            return fromCounts(counts, 0, numClasses, size);
+        }
+        if (values != null) {
+            return method.equals("variance") ? Variance.compute(values, 0, size) : MAD.compute(values, 0, size);
+        }
+        return Purity.compute(method, boxed);
+    }
+
+    /**
+     * Impurity of the split that sends label i to branches[i], weighted by the size of each branch, in one pass
+     * over the labels. An empty branch counts as an empty set of labels would for the measure.
+     */
+    public double weighted(int[] branches, int numBranches) {
+        if (codes != null) {
+            int[] counts = new int[numBranches * numClasses];  // branch -> class -> count
+            int[] totals = new int[numBranches];
+            for (int i = 0; i < size; i++) {
+                counts[branches[i] * numClasses + codes[i]]++;
+                totals[branches[i]]++;
+            }
+            double wpurity = 0.0;
+            for (int b = 0; b < numBranches; b++) {
+                wpurity += ((double) totals[b] / size) * fromCounts(counts, b * numClasses, numClasses, totals[b]);
+            }
+            return wpurity;
+        }
+        if (values != null) {
+            return method.equals("variance") ? weightedVariance(branches, numBranches) : weightedMAD(branches, numBranches);
+        }
+
+        List<List<Object>> split = new ArrayList<>(numBranches);
+        for (int b = 0; b < numBranches; b++) {
+            split.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            split.get(branches[i]).add(boxed.get(i));
+        }
+        double wpurity = 0.0;
+        for (List<Object> labels : split) {
+            wpurity += ((double) labels.size() / size) * Purity.compute(method, labels);
+        }
+        return wpurity;
+    }
+
+    private double fromCounts(int[] counts, int from, int numClasses, int total) {
+        return method.equals("gini")
+                ? Gini.compute(counts, from, numClasses, total)
+                : Entropy.compute(counts, from, numClasses, total);
+    }
+
+    // Welford's running mean and sum of squared deviations of every branch, in one pass
+    private double weightedVariance(int[] branches, int numBranches) {
+        int[] n = new int[numBranches];
+        double[] mean = new double[numBranches];
+        double[] m2 = new double[numBranches];
+        for (int i = 0; i < size; i++) {
+            int b = branches[i];
+            double delta = values[i] - mean[b];
+            mean[b] += delta / ++n[b];
+            m2[b] += delta * (values[i] - mean[b]);
+        }
+        double wpurity = 0.0;
+        for (int b = 0; b < numBranches; b++) {
+            // 0/0 for an empty branch, as Variance.compute gives for no labels
+            wpurity += ((double) n[b] / size) * (m2[b] / n[b]);
+        }
+        return wpurity;
+    }
+
+    private double weightedMAD(int[] branches, int numBranches) {
+        int[] n = new int[numBranches];
+        double[] mean = new double[numBranches];
+        for (int i = 0; i < size; i++) {
+            n[branches[i]]++;
+            mean[branches[i]] += values[i];
+        }
+        for (int b = 0; b < numBranches; b++) {
+            mean[b] /= n[b];
+        }
+        double[] mad = new double[numBranches];
+        for (int i = 0; i < size; i++) {
+            mad[branches[i]] += Math.abs(values[i] - mean[branches[i]]);
+        }
+        double wpurity = 0.0;
+        for (int b = 0; b < numBranches; b++) {
+            if (n[b] > 0) {
+                wpurity += ((double) n[b] / size) * (mad[b] / n[b]);
+            }
+        }
+        return wpurity;
+    }
+
+    // the labels themselves as codes if they are all small non-negative Integers; returns the number of codes, or -1
+    private static int directCodes(List<Object> labels, int[] codes) {
+        int max = -1;
+        for (int i = 0; i < codes.length; i++) {
+            Object label = labels.get(i);
+            if (!(label instanceof Integer)) {
+                return -1;
+            }
+            int code = (Integer) label;
+            if (code < 0 || code > MAX_DIRECT_CODE) {
+                return -1;
+            }
+            codes[i] = code;
+            max = Math.max(max, code);
+        }
+        return max + 1;
+    }
+
+    private static int mappedCodes(List<Object> labels, int[] codes) {
+        Map<Object, Integer> codeOf = new HashMap<>();
+        for (int i = 0; i < codes.length; i++) {
+            Integer code = codeOf.get(labels.get(i));
+            if (code == null) {
+                code = codeOf.size();
+                codeOf.put(labels.get(i), code);
+            }
+            codes[i] = code;
+        }
+        return codeOf.size();
+    }
+}
@@ -21,4 +21,22 @@ public class MAD {
         return mad / labels.size();
     }
 
+    /** Mean absolute deviation of values[from, to) from their mean. */
+    public static double compute(double[] values, int from, int to) {
+        if (from >= to) return 0.0;
+
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        double mean = sum / (to - from);
+
+        double mad = 0.0;
+        for (int i = from; i < to; i++) {
+            mad += Math.abs(values[i] - mean);
+        }
+
+        return mad / (to - from);
+    }
+
 }
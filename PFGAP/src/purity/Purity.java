@@ -0,0 +1,23 @@
+package purity;
+
+import java.util.List;
+
+public class Purity {
+
+    /** Impurity of the labels under the named measure (gini, variance, entropy or mad); lower is purer. */
+    public static double compute(String method, List<Object> labels) {
+        switch (method.toLowerCase()) {
+            case "gini":
+                return Gini.compute(labels);
+            case "variance":
+                return Variance.compute(labels);
+            case "entropy":
+                return Entropy.compute(labels);
+            case "mad":
+                return MAD.compute(labels);
+            default:
+                throw new IllegalArgumentException("Unknown purity method: " + method);
+        }
+    }
+
+}
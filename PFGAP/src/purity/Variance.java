@@ -25,4 +25,17 @@ public class Variance {
         return variance / n;
     }
 
+    /** Population variance of values[from, to) in one pass (Welford); NaN if the range is empty, like compute(List). */
+    public static double compute(double[] values, int from, int to) {
+        double mean = 0;
+        double m2 = 0;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            double delta = values[i] - mean;
+            mean += delta / ++n;
+            m2 += delta * (values[i] - mean);
+        }
+        return m2 / n;
+    }
+
 }
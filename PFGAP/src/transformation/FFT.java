@@ -0,0 +1,88 @@
+package transformation;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An iterative radix-2 fast Fourier transform over interleaved complex values: element k of a transform of size n
+ * is (data[2k], data[2k + 1]) = (real, imaginary), and n is a power of two.
+ */
+public class FFT {
+
+    // cos and sin of 2*pi*k/n for k < n/2, per transform size; a run only ever uses a few sizes
+    private static final ConcurrentHashMap<Integer, double[][]> twiddles = new ConcurrentHashMap<>();
+
+    // The smallest power of two that holds a linear (not circular) correlation of two series of length n.
+    public static int paddedLength(int n) {
+        int size = 1;
+        while (size < 2 * n - 1) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // The transform of values[0..count), zero-padded to size points.
+    public static double[] spectrum(double[] values, int count, int size) {
+        double[] data = new double[2 * size];
+        for (int i = 0; i < count; i++) {
+            data[2 * i] = values[i];
+        }
+        transform(data, size, false);
+        return data;
+    }
+
+    // In place; the inverse is not scaled, so the inverse of a forward transform returns size times the input.
+    public static void transform(double[] data, int size, boolean inverse) {
+        for (int i = 1, j = 0; i < size; i++) {
+            int bit = size >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double re = data[2 * i], im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+
+        if (size < 2) {
+            return;
+        }
+        double[][] table = twiddles.computeIfAbsent(size, FFT::twiddleTable);
+        double[] cos = table[0];
+        double[] sin = table[1];
+        double sign = inverse ? 1.0 : -1.0;
+
+        for (int len = 2; len <= size; len <<= 1) {
+            int half = len >> 1;
+            int step = size / len;
+            for (int i = 0; i < size; i += len) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = 2 * (i + k);
+                    int b = 2 * (i + k + half);
+                    double xr = data[b] * wr - data[b + 1] * wi;
+                    double xi = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - xr;
+                    data[b + 1] = data[a + 1] - xi;
+                    data[a] += xr;
+                    data[a + 1] += xi;
+                }
+            }
+        }
+    }
+
+    private static double[][] twiddleTable(int size) {
+        double[] cos = new double[size / 2];
+        double[] sin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = 2.0 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+        return new double[][]{cos, sin};
+    }
+}
@@ -3,8 +3,6 @@ package trees;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -15,12 +13,15 @@ import java.util.stream.IntStream;
 
 import core.AppContext;
 import core.ProximityForestResult;
+import core.WorkerPool;
 //import core.contracts.Dataset;
 import core.contracts.ObjectDataset;
 //import datasets.ListDataset;
 import datasets.ListObjectDataset;
 import distance.DistanceMeasure;
 import distance.MEASURE;
+import distance.TransformCache;
+import proximities.ProximityAccumulator;
 import util.PrintUtilities;
 /**
  * 
@@ -46,8 +47,10 @@ public class ProximityForest implements Serializable{
 	//List<Integer> max_voted_classes;
 	List<Object> predictions;
 
+	protected transient ProximityAccumulator proximityAccumulator; //only used if AppContext.incrementalProx == true
+	protected transient TestLeaves testLeaves; //leaves reached by the queries of the last call to test()
+
 	private final ReentrantLock trainLock = new ReentrantLock();
-	private final ReentrantLock predictLock = new ReentrantLock();
 
 
 	public ProximityForest(int forest_id, MEASURE... selected_distances) {
@@ -110,23 +113,22 @@ public class ProximityForest implements Serializable{
 	}*/
 
 	//public void train(Dataset train_data) throws Exception {
-	public void train(ListObjectDataset train_data) throws Exception {
+	public void train(ObjectDataset train_data) throws Exception {
 		trainLock.lock();
 		try {
 			result.startTimeTrain = System.nanoTime();
+			TransformCache.clear(); // the series may have been updated (imputed) since they were last transformed
+			proximityAccumulator = AppContext.incrementalProx ? new ProximityAccumulator(train_data.size()) : null;
 
 			if (AppContext.parallelTrees) {
-				ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+				// trees run on the shared pool, which their node tasks (AppContext.parallelNodes) are forked into too
 				List<Future<?>> futures = new ArrayList<>();
 
 				for (int i = 0; i < trees.length; i++) {
 					final int index = i;
-					futures.add(executor.submit(() -> {
-						try {
-							trees[index].train(train_data);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
+					futures.add(WorkerPool.pool().submit(() -> {
+						trees[index].train(train_data);
+						contributeProximities(trees[index]);
 						if (AppContext.verbosity > 0) {
 							synchronized (System.out) {
 								System.out.print(index + ".");
@@ -138,17 +140,25 @@ public class ProximityForest implements Serializable{
 								}
 							}
 						}
+						return null; // a Callable, so a failing tree fails its future
 					}));
 				}
 
+				// a failed tree would leave the forest (and the incremental proximities) incomplete, so train fails too
 				for (Future<?> future : futures) {
-					future.get();
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						for (Future<?> other : futures) {
+							other.cancel(false);
+						}
+						throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
 				}
-
-				executor.shutdown();
 			} else {
 				for (int i = 0; i < trees.length; i++) {
 					trees[i].train(train_data);
+					contributeProximities(trees[i]);
 					if (AppContext.verbosity > 0) {
 						System.out.print(i + ".");
 						if (AppContext.verbosity > 1) {
@@ -175,6 +185,20 @@ public class ProximityForest implements Serializable{
 
 
 
+	// With incremental proximities, a finished tree hands its leaves to the accumulator right away
+	// (overlapping with the trees still training) and then no longer needs its out-of-bag lists.
+	private void contributeProximities(ProximityTree tree) {
+		if (proximityAccumulator != null) {
+			proximityAccumulator.addTree(tree);
+			tree.releaseOutOfBagIndices();
+		}
+	}
+
+	public ProximityAccumulator getProximityAccumulator() {
+		return proximityAccumulator;
+	}
+
+
 	//This is the previous test() method code before parallelization.
 	//ASSUMES CLASS labels HAVE BEEN reordered to start from 0 and contiguous
 	//public ProximityForestResult test(Dataset test_data) throws Exception {
@@ -218,28 +242,31 @@ public class ProximityForest implements Serializable{
 
 	public ProximityForestResult test(ListObjectDataset test_data) throws Exception {
 		result.startTimeTest = System.nanoTime();
-		result.Predictions = new ArrayList<>();
+		TransformCache.clear();
 
 		int size = test_data.size();
 		AtomicInteger correct = new AtomicInteger(0);
 		AtomicInteger errors = new AtomicInteger(0);
 
-		List<Object> actualLabels = Collections.synchronizedList(new ArrayList<>());
-		List<Object> predictedLabels = Collections.synchronizedList(new ArrayList<>());
+		// every query writes only its own slots, so no list or lock is shared between queries
+		Object[] actualLabels = new Object[size];
+		Object[] predictedLabels = new Object[size];
+		TestLeaves leaves = new TestLeaves(trees.length, size);
+		Object[] batchPredictions = AppContext.batchPredict ? predictBatches(test_data, leaves) : null;
 
 		boolean allowParallel = AppContext.parallelPredict && !AppContext.parallelTrees;
 		IntStream stream = allowParallel ? IntStream.range(0, size).parallel() : IntStream.range(0, size);
 
-		stream.forEach(i -> {
+		// run in the shared pool, so a parallel stream uses its workers rather than the common pool
+		WorkerPool.run(() -> stream.forEach(i -> {
 			try {
 				Object actual_label = test_data.get_class(i);
-				Object predicted_label = predict(test_data.get_series(i), i);
-				synchronized (result.Predictions) {
-					result.Predictions.add(predicted_label);
-				}
+				Object predicted_label = batchPredictions != null
+						? batchPredictions[i]
+						: predict(test_data.get_series(i), i, leaves);
 
-				predictedLabels.add(predicted_label);
-				actualLabels.add(actual_label);
+				predictedLabels[i] = predicted_label;
+				actualLabels[i] = actual_label;
 
 				if (actual_label != null) {
 					if (!Objects.equals(actual_label, predicted_label)) {
@@ -255,7 +282,10 @@ public class ProximityForest implements Serializable{
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
-		});
+		}));
+
+		result.Predictions = new ArrayList<>(Arrays.asList(predictedLabels));
+		this.testLeaves = leaves;
 
 		result.endTimeTest = System.nanoTime();
 		result.elapsedTimeTest = result.endTimeTest - result.startTimeTest;
@@ -267,20 +297,19 @@ public class ProximityForest implements Serializable{
 		result.correct = correct.get();
 		result.errors = errors.get();
 
-		int validLabelCount = (int) actualLabels.stream().filter(Objects::nonNull).count();
+		int validLabelCount = (int) Arrays.stream(actualLabels).filter(Objects::nonNull).count();
 		assert validLabelCount == result.correct + result.errors;
 
 		if (validLabelCount > 0 && AppContext.exists_testlabels) {
 			if (AppContext.isRegression) {
-				List<Double> yTrue = actualLabels.stream()
-						.filter(Objects::nonNull)
-						.map(val -> (Double) val)
-						.collect(Collectors.toList());
-
-				List<Double> yPred = predictedLabels.stream()
-						.filter(Objects::nonNull)
-						.map(val -> (Double) val)
-						.collect(Collectors.toList());
+				List<Double> yTrue = new ArrayList<>();
+				List<Double> yPred = new ArrayList<>();
+				for (int i = 0; i < size; i++) {
+					if (actualLabels[i] != null && predictedLabels[i] != null) {
+						yTrue.add((Double) actualLabels[i]);
+						yPred.add((Double) predictedLabels[i]);
+					}
+				}
 
 				double mean = yTrue.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
 				double ssTot = yTrue.stream().mapToDouble(y -> Math.pow(y - mean, 2)).sum();
@@ -304,78 +333,167 @@ public class ProximityForest implements Serializable{
 
 
 	//public Integer predict(double[] query) throws Exception {
+	public Object predict(Object query) throws Exception {
+		return predict(query, -1, null);
+	}
+
 	public Object predict(Object query, int index) throws Exception {
-		predictLock.lock();
-		try {
-			List<Object> predictions = Collections.synchronizedList(new ArrayList<>());
+		return predict(query, index, null);
+	}
 
-			if (AppContext.parallelTrees) {
-				ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-				List<Future<?>> futures = new ArrayList<>();
+	/**
+	 * Predicts the query without locking: trees are only read, and the leaf reached in each tree is
+	 * recorded in leaves under the given query index, unless leaves is null.
+	 */
+	public Object predict(Object query, int index, TestLeaves leaves) throws Exception {
+		Object[] predictions = new Object[trees.length];
 
-				for (int i = 0; i < trees.length; i++) {
-					final int treeIndex = i;
-					futures.add(executor.submit(() -> {
-						try {
-							Object label = trees[treeIndex].predict(query, index);
-							predictions.add(label);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}));
+		if (AppContext.parallelTrees) {
+			WorkerPool.forEachBlock(trees.length, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					predictions[i] = predictTree(i, query, index, leaves);
 				}
+			});
+		} else {
+			for (int i = 0; i < trees.length; i++) {
+				predictions[i] = predictTree(i, query, index, leaves);
+			}
+		}
 
-				for (Future<?> future : futures) {
-					future.get();
-				}
+		return vote(predictions);
+	}
 
-				executor.shutdown();
-			} else {
-				for (int i = 0; i < trees.length; i++) {
-					Object label = trees[i].predict(query, index);
-					predictions.add(label);
-				}
+	/**
+	 * Predicts every series of data tree by tree instead of query by query: see {@link #findLeaves(ObjectDataset, TestLeaves)}.
+	 * The leaf reached in each tree is recorded in leaves, which must have a slot for every series of data.
+	 */
+	public Object[] predict(ObjectDataset data, TestLeaves leaves) throws Exception {
+		TransformCache.clear();
+		return predictBatches(data, leaves);
+	}
+
+	// predict(ObjectDataset, TestLeaves) for callers that have already cleared the TransformCache
+	private Object[] predictBatches(ObjectDataset data, TestLeaves leaves) throws Exception {
+		routeBatches(data, leaves);
+
+		Object[] predictions = new Object[data.size()];
+		Object[] treePredictions = new Object[trees.length];
+		for (int q = 0; q < predictions.length; q++) {
+			for (int t = 0; t < trees.length; t++) {
+				treePredictions[t] = leaves.leaf(t, q).label();
 			}
+			predictions[q] = vote(treePredictions);
+		}
+		return predictions;
+	}
 
-			if (AppContext.isRegression) {
-				List<Double> numeric = new ArrayList<>();
-				for (Object pred : predictions) {
-					if (pred instanceof Number) {
-						numeric.add(((Number) pred).doubleValue());
-					}
+	// the forest's prediction from the predictions of its trees: the mean or median for regression, the majority otherwise.
+	// Trees without a prediction (null) cast no vote, so a null label can no longer win the majority.
+	private Object vote(Object[] predictions) {
+		if (AppContext.isRegression) {
+			List<Double> numeric = new ArrayList<>();
+			for (Object pred : predictions) {
+				if (pred instanceof Number) {
+					numeric.add(((Number) pred).doubleValue());
 				}
+			}
 
-				if (AppContext.voting.equalsIgnoreCase("mean")) {
-					return numeric.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-				} else if (AppContext.voting.equalsIgnoreCase("median")) {
-					Collections.sort(numeric);
-					int n = numeric.size();
-					return (n % 2 == 1)
-							? numeric.get(n / 2)
-							: (numeric.get(n / 2 - 1) + numeric.get(n / 2)) / 2.0;
-				} else {
-					throw new IllegalArgumentException("Unknown voting method: " + AppContext.voting);
-				}
+			if (AppContext.voting.equalsIgnoreCase("mean")) {
+				return numeric.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+			} else if (AppContext.voting.equalsIgnoreCase("median")) {
+				Collections.sort(numeric);
+				int n = numeric.size();
+				return (n % 2 == 1)
+						? numeric.get(n / 2)
+						: (numeric.get(n / 2 - 1) + numeric.get(n / 2)) / 2.0;
 			} else {
-				Map<Object, Integer> voteCounts = new HashMap<>();
-				for (Object pred : predictions) {
+				throw new IllegalArgumentException("Unknown voting method: " + AppContext.voting);
+			}
+		} else {
+			Map<Object, Integer> voteCounts = new HashMap<>();
+			for (Object pred : predictions) {
+				if (pred != null) {
 					voteCounts.put(pred, voteCounts.getOrDefault(pred, 0) + 1);
 				}
+			}
 
-				Object majority = null;
-				int max = 0;
-				for (Map.Entry<Object, Integer> entry : voteCounts.entrySet()) {
-					if (entry.getValue() > max) {
-						max = entry.getValue();
-						majority = entry.getKey();
-					}
+			Object majority = null;
+			int max = 0;
+			for (Map.Entry<Object, Integer> entry : voteCounts.entrySet()) {
+				if (entry.getValue() > max) {
+					max = entry.getValue();
+					majority = entry.getKey();
 				}
+			}
+
+			return majority;
+		}
+	}
 
-				return majority;
+	/** Routes every series of data through every tree, without predicting, in parallel if AppContext.parallelPredict is set. */
+	public TestLeaves findLeaves(ListObjectDataset data) {
+		TransformCache.clear();
+		int size = data.size();
+		TestLeaves leaves = new TestLeaves(trees.length, size);
+		if (AppContext.batchPredict) {
+			try {
+				routeBatches(data, leaves);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-		} finally {
-			predictLock.unlock();
+			return leaves;
 		}
+		IntStream stream = AppContext.parallelPredict ? IntStream.range(0, size).parallel() : IntStream.range(0, size);
+
+		WorkerPool.run(() -> stream.forEach(i -> {
+			try {
+				for (int t = 0; t < trees.length; t++) {
+					leaves.record(t, i, trees[t].find_leaf(data.get_series(i)));
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}));
+		return leaves;
+	}
+
+	/**
+	 * Routes data through the trees in batches of AppContext.batchSize series. Each batch goes down a tree as a whole
+	 * ({@link ProximityTree#find_leaves}), so a node's exemplars are used for the whole batch while they are in cache.
+	 * The (tree, batch) pairs are independent, so they run in parallel when parallelPredict or parallelTrees is set.
+	 */
+	public void findLeaves(ObjectDataset data, TestLeaves leaves) throws Exception {
+		TransformCache.clear();
+		routeBatches(data, leaves);
+	}
+
+	// findLeaves(ObjectDataset, TestLeaves) for callers that have already cleared the TransformCache
+	private void routeBatches(ObjectDataset data, TestLeaves leaves) throws Exception {
+		int size = data.size();
+		int batchSize = AppContext.batchSize > 0 ? AppContext.batchSize : Math.max(1, size);
+		int numBatches = (size + batchSize - 1) / batchSize;
+
+		WorkerPool.Block route = (from, to) -> {
+			// tree-major: consecutive tasks take the batches of one tree
+			for (int k = from; k < to; k++) {
+				int t = k / numBatches;
+				int b = k % numBatches;
+				trees[t].find_leaves(data, b * batchSize, Math.min(size, (b + 1) * batchSize), leaves, t);
+			}
+		};
+		if (AppContext.parallelPredict || AppContext.parallelTrees) {
+			WorkerPool.forEachBlock(trees.length * numBatches, route);
+		} else {
+			route.run(0, trees.length * numBatches);
+		}
+	}
+
+	private Object predictTree(int tree, Object query, int index, TestLeaves leaves) throws Exception {
+		ProximityTree.Node leaf = trees[tree].find_leaf(query);
+		if (leaves != null) {
+			leaves.record(tree, index, leaf);
+		}
+		return leaf.label();
 	}
 
 
@@ -430,6 +548,11 @@ public class ProximityForest implements Serializable{
 		return this.trees[i];
 	}
 
+	/** The leaves reached by the queries of the last call to test(), or null before the first one. */
+	public TestLeaves getTestLeaves() {
+		return this.testLeaves;
+	}
+
 	public ProximityForestResult getResultSet() {
 		return result;
 	}
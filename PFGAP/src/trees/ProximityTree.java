@@ -3,19 +3,21 @@ package trees;
 import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.CountedCompleter;
 
 import core.AppContext;
 import core.TreeStatCollector;
+import core.WorkerPool;
 //import core.contracts.Dataset;
 import core.contracts.ObjectDataset;
 //import datasets.ListDataset;
 import datasets.ListObjectDataset;
+import datasets.SliceObjectDataset;
 import distance.DistanceMeasure;
 import distance.MEASURE;
-import org.apache.commons.lang3.ArrayUtils;
+import util.BootstrapSample;
 
 import java.util.Random;
-import java.util.stream.IntStream;
 
 /**
  * 
@@ -38,6 +40,7 @@ public class ProximityTree implements Serializable {
 	private String[] distance_file;
 	
 	protected DistanceMeasure tree_distance_measure; //only used if AppContext.random_dm_per_node == false
+	private boolean outOfBagReleased; //set once releaseOutOfBagIndices has run
 
 	public ProximityTree(int tree_id, ProximityForest forest, MEASURE... chosen_distances) {
 		this.forest_id = forest.forest_id;
@@ -83,7 +86,7 @@ public class ProximityTree implements Serializable {
 	public ArrayList<Node> getLeaves() {return this.leaves;}
 	
 	//public void train(Dataset data) throws Exception {
-	public void train(ListObjectDataset data) throws Exception {
+	public void train(ObjectDataset data) throws Exception {
 		//System.out.println("Training a tree");
 		if (this.chosen_distances.length == 0){
 			if (AppContext.random_dm_per_node ==  false) {	//DM is selected once per tree
@@ -100,96 +103,223 @@ public class ProximityTree implements Serializable {
 			}
 		}
 		
-		this.root = new Node(null, null, ++node_counter, this);
+		this.root = new Node(null, null, next_node_id(), this);
 		//Try putting the in- and out-of-bag stuff here.
-		ObjectDataset inbagData = new ListObjectDataset(); //ListDataset();
-		ObjectDataset oobData = new ListObjectDataset(); //ListDataset();
-
-		//First we get the in-bag indices.
-		int dummySize = data.size();
-		int[]  randomIntsArray = IntStream.generate(() -> new Random().nextInt(dummySize)).limit(data.size()).toArray();
-		//InBagIndices = new ArrayList<Integer>();
-		for(int i=0; i<randomIntsArray.length; i++){
-			this.getRootNode().InBagIndices.add(randomIntsArray[i]);
-		}
-		//int[] num = IntStream.range(0, data.size()).toArray();
-		int[] distinctInBag = Arrays.stream(randomIntsArray).distinct().toArray();
-		//setInBagIndices(distinctInBag);
-		//setInBagIndices(randomIntsArray);
-
-		this.getRootNode().multiplicities = new HashMap<Integer,Integer>();
-		//now we compute the multiplicities (number of times the indices occur in the in-bag sample)
-		for (int i=0; i<this.getRootNode().InBagIndices.size(); i++){
-			if (this.getRootNode().multiplicities.containsKey((this.getRootNode().InBagIndices.get(i)))){
-				this.getRootNode().multiplicities.put(this.getRootNode().InBagIndices.get(i),this.getRootNode().multiplicities.get(this.getRootNode().InBagIndices.get(i))+1);
-			}
-			else{
-				this.getRootNode().multiplicities.put(this.getRootNode().InBagIndices.get(i),1);
-			}
+		// Bootstrap the training set: draws, multiplicities and out-of-bag rows all come from one O(N) pass.
+		BootstrapSample bootstrap = BootstrapSample.draw(data.size());
+		int[] draws = bootstrap.draws();
+		int[] outOfBag = bootstrap.outOfBag();
+
+		this.getRootNode().InBagIndices = new ArrayList<>(draws.length);
+		for (int index : draws) {
+			this.getRootNode().InBagIndices.add(index);
 		}
-
-		//now we need to get the out-of-bag indices.
-		ArrayList<Integer> result = new ArrayList<Integer>(); //out-of-bag
-		//ArrayList<Integer> resultA = (ArrayList<Integer>) InBagIndices; //new ArrayList<Integer>(); //for converting inbag
-		for (int i = 0; i < randomIntsArray.length; i++){
-			Boolean isInBag = ArrayUtils.contains(distinctInBag, i);
-			if (!isInBag){result.add(i);}
-			//else{resultA.add(i);}
+		this.getRootNode().OutOfBagIndices = new ArrayList<>(outOfBag.length);
+		for (int index : outOfBag) {
+			this.getRootNode().OutOfBagIndices.add(index);
 		}
-		int[] result2 = result.stream().mapToInt(i -> i).toArray();
-		//OutOfBagIndices = new ArrayList<Integer>();
-		for(int i=0; i<result2.length; i++){
-			this.getRootNode().OutOfBagIndices.add(result2[i]);
-		}
-		//setOutOfBagIndices(result2);
-		data.set_indices(this.getRootNode().InBagIndices);
+		this.getRootNode().multiplicities = bootstrap.multiplicities();
 
-		// Now we need to get the sub sample corresponding to the in-bag indices.
-		ObjectDataset data2 = new ListObjectDataset(); //ListDataset(); //data;
-		for (int index : this.getRootNode().InBagIndices){
-			//System.out.println(Arrays.toString(data.get_series(index)));
-			//System.out.println(data.get_index(index));
-			data2.add(data.get_class(index), data.get_series(index), index);
+		// nodes train on slices of data: the tree owns the row arrays and partitions them in place as it grows
+		SliceObjectDataset inbagData = new SliceObjectDataset(data, draws.clone());
+		SliceObjectDataset oobData = new SliceObjectDataset(data, outOfBag.clone());
 
+		if (AppContext.tree_growth.equalsIgnoreCase("breadth") || AppContext.max_leaves > 0) {
+			grow_breadth_first(inbagData, oobData);
+		} else if (AppContext.parallelNodes) {
+			WorkerPool.invoke(new GrowTask(null, root, inbagData, oobData));
+		} else {
+			grow_depth_first(root, inbagData, oobData);
 		}
-		//data = data2; //we're only training on in-bag samples.
-		inbagData = data2;
-		// Now we need to get the sub sample corresponding to the out-of-bag indices.
-		ObjectDataset data3 = new ListObjectDataset(); //new ListDataset();
-		for (int index : this.getRootNode().OutOfBagIndices){
-			//System.out.println(Arrays.toString(data.get_series(index)));
-			//System.out.println(data.get_index(index));
-			data3.add(data.get_class(index), data.get_series(index), index);
+	}
 
+	/**
+	 * Trains the subtree under node depth-first, visiting the nodes in the order recursive training did but from an
+	 * explicit stack, so a deep, unbalanced tree cannot overflow the call stack.
+	 */
+	void grow_depth_first(Node node, SliceObjectDataset inbagData, SliceObjectDataset oobData) throws Exception {
+		Deque<Node> nodes = new ArrayDeque<>();
+		Deque<SliceObjectDataset[]> slices = new ArrayDeque<>();
+		nodes.push(node);
+		slices.push(new SliceObjectDataset[] {inbagData, oobData});
+
+		while (!nodes.isEmpty()) {
+			Node next = nodes.pop();
+			SliceObjectDataset[] slice = slices.pop();
+
+			SliceObjectDataset[][] child_data = next.expand(slice[0], slice[1], Integer.MAX_VALUE);
+			if (child_data != null) {
+				// pushed last to first, so the first child is trained first
+				for (int i = next.children.length - 1; i >= 0; i--) {
+					nodes.push(next.children[i]);
+					slices.push(new SliceObjectDataset[] {child_data[0][i], child_data[1][i]});
+				}
+			}
 		}
-		oobData = data3;
-		//System.out.println(Arrays.toString(data.get_series(0)));
-		//System.out.println(data.get_index(0));
-
+	}
 
-		//Integer[] result = s1.toArray(new Integer[s1.size()]);
+	/**
+	 * Expands one node and forks a task for every child with at least AppContext.parallelNodeThreshold in-bag rows;
+	 * smaller subtrees are grown depth-first on the current thread, where a task would cost more than it saves.
+	 * A task completes once its node and all the tasks it forked are done, so no worker ever waits in a join,
+	 * and the children's slices are disjoint ranges of the tree's row arrays, so sibling tasks never share rows.
+	 */
+	private class GrowTask extends CountedCompleter<Void> {
+		private final Node node;
+		private final SliceObjectDataset inbagData;
+		private final SliceObjectDataset oobData;
+
+		GrowTask(GrowTask parent, Node node, SliceObjectDataset inbagData, SliceObjectDataset oobData) {
+			super(parent);
+			this.node = node;
+			this.inbagData = inbagData;
+			this.oobData = oobData;
+		}
 
+		@Override
+		public void compute() {
+			try {
+				SliceObjectDataset[][] child_data = node.expand(inbagData, oobData, Integer.MAX_VALUE);
+				if (child_data != null) {
+					for (int i = 0; i < node.children.length; i++) {
+						if (child_data[0][i].size() >= AppContext.parallelNodeThreshold) {
+							addToPendingCount(1);
+							new GrowTask(this, node.children[i], child_data[0][i], child_data[1][i]).fork();
+						}
+					}
+					for (int i = 0; i < node.children.length; i++) {
+						if (child_data[0][i].size() < AppContext.parallelNodeThreshold) {
+							grow_depth_first(node.children[i], child_data[0][i], child_data[1][i]);
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			tryComplete();
+		}
+	}
 
+	// Node ids are handed out by whichever thread creates the node when nodes are trained in parallel.
+	synchronized int next_node_id() {
+		return ++node_counter;
+	}
 
-		this.root.train(inbagData, oobData);
+	/**
+	 * Grows the tree level by level from a FIFO queue of untrained nodes, so a leaf budget (AppContext.max_leaves)
+	 * stops growth evenly across the tree instead of in whichever branch happens to be trained last.
+	 * Every queued node ends up as at least one leaf, so the leaves a tree would have if growth stopped now
+	 * are the finished leaves plus the queue; a node is only split if its children still fit in the budget.
+	 */
+	private void grow_breadth_first(SliceObjectDataset inbagData, SliceObjectDataset oobData) throws Exception {
+		Deque<Node> nodes = new ArrayDeque<>();
+		Deque<SliceObjectDataset[]> slices = new ArrayDeque<>();
+		nodes.add(root);
+		slices.add(new SliceObjectDataset[] {inbagData, oobData});
+		int committed_leaves = 1;
+
+		while (!nodes.isEmpty()) {
+			Node node = nodes.poll();
+			SliceObjectDataset[] slice = slices.poll();
+			int max_children = AppContext.max_leaves > 0 ? AppContext.max_leaves - committed_leaves + 1 : Integer.MAX_VALUE;
+
+			SliceObjectDataset[][] child_data = node.expand(slice[0], slice[1], max_children);
+			if (child_data != null) {
+				committed_leaves += node.children.length - 1;
+				for (int i = 0; i < node.children.length; i++) {
+					nodes.add(node.children[i]);
+					slices.add(new SliceObjectDataset[] {child_data[0][i], child_data[1][i]});
+				}
+			}
+		}
 	}
 	
 	//public Integer predict(double[] query) throws Exception {
-	public Object predict(Object query, int index) throws Exception {
+	public Object predict(Object query) throws Exception {
+		return find_leaf(query).label();
+	}
+
+	// Routes the query to its leaf without modifying the tree, so any number of threads can predict at once.
+	public Node find_leaf(Object query) throws Exception {
 		Node node = this.root;
 
 		while(!node.is_leaf()) {
 			node = node.children[node.splitter.find_closest_branch(query)];
 		}
-		node.TestIndices.add(index);
-		return node.label();
+		return node;
 	}	
 
+	/**
+	 * Routes the series [from, to) of data through the tree together, node by node: a node assigns all the series that
+	 * reach it to its branches in one pass, with its exemplars and their bounds at hand, and partitions them in place
+	 * before the branches are routed in turn. The leaf of series q is recorded under (tree, q) in leaves.
+	 */
+	public void find_leaves(ObjectDataset data, int from, int to, TestLeaves leaves, int tree) throws Exception {
+		if (from >= to) {
+			return;
+		}
+		int[] rows = new int[to - from];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = from + i;
+		}
+
+		Deque<Node> nodes = new ArrayDeque<>();
+		Deque<SliceObjectDataset> batches = new ArrayDeque<>();
+		nodes.push(root);
+		batches.push(new SliceObjectDataset(data, rows));
+
+		while (!nodes.isEmpty()) {
+			Node node = nodes.pop();
+			SliceObjectDataset batch = batches.pop();
+
+			if (node.is_leaf()) {
+				for (int i = 0; i < batch.size(); i++) {
+					leaves.record(tree, batch.get_index(i), node);
+				}
+				continue;
+			}
+
+			int[] branches = new int[batch.size()];
+			for (int i = 0; i < batch.size(); i++) {
+				branches[i] = node.splitter.find_closest_branch(batch.get_series(i));
+			}
+			SliceObjectDataset[] parts = batch.partition(branches, node.children.length);
+			for (int b = 0; b < parts.length; b++) {
+				if (parts[b].size() > 0) {
+					nodes.push(node.children[b]);
+					batches.push(parts[b]);
+				}
+			}
+		}
+	}
+
 	
 	public int getTreeID() {
 		return tree_id;
 	}
 
+	// Drops the out-of-bag bookkeeping of every node once the training proximities no longer need it.
+	public void releaseOutOfBagIndices() {
+		outOfBagReleased = true;
+		Deque<Node> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node n = stack.pop();
+			n.setOutOfBagIndices(new ArrayList<>());
+			if (n.children != null) {
+				for (Node child : n.children) {
+					stack.push(child);
+				}
+			}
+		}
+	}
+
+	public boolean isOutOfBagReleased() {
+		return outOfBagReleased;
+	}
+
 	
 	//************************************** START stats -- development/debug code
 	public TreeStatCollector getTreeStatCollection() {
@@ -328,8 +458,7 @@ public class ProximityTree implements Serializable {
 	
 		protected ArrayList<Integer> InBagIndices; //int[] InBagIndices;
 		protected ArrayList<Integer> OutOfBagIndices; //ArrayList<Integer> OutOfBagIndices;
-		public ArrayList<Integer> TestIndices;
-		protected Map<Integer, Integer> multiplicities;
+		protected int[] multiplicities; // training row -> in-bag multiplicity, set on the root only
 		//protected transient Node parent;	//dont need this, but it helps to debug
 		//protected transient ProximityTree tree;
 		protected Node parent;	//dont need this, but it helps to debug
@@ -354,7 +483,6 @@ public class ProximityTree implements Serializable {
 			this.tree = tree;
 			this.InBagIndices = new ArrayList<>();
 			this.OutOfBagIndices = new ArrayList<>();
-			this.TestIndices = new ArrayList<>();
 			this.multiplicities = null;
 			
 			if (parent != null) {
@@ -383,9 +511,9 @@ public class ProximityTree implements Serializable {
 		//public ArrayList<Integer> getOutOfBagIndices() {return this.OutOfBagIndices;}
 		public ArrayList<Integer> getOutOfBagIndices() {return this.OutOfBagIndices;}
 
-		public void setMultiplicities(Map<Integer, Integer> multiplicities) { this.multiplicities=multiplicities;}
+		public void setMultiplicities(int[] multiplicities) { this.multiplicities=multiplicities;}
 
-		public Map<Integer, Integer> getMultiplicities() {return this.multiplicities;}
+		public int[] getMultiplicities() {return this.multiplicities;}
 //		public Dataset get_data() {
 //			return this.data;
 //		}		
@@ -447,7 +575,16 @@ public class ProximityTree implements Serializable {
 //		}		
 		
 		//public void train(Dataset data, Dataset oobData) throws Exception {
-		public void train(ObjectDataset data, ObjectDataset oobData) throws Exception {
+		public void train(SliceObjectDataset data, SliceObjectDataset oobData) throws Exception {
+			tree.grow_depth_first(this, data, oobData);
+		}
+
+		/**
+		 * Turns this node into a leaf, or splits it and creates its (untrained) children. In the latter case the in-bag
+		 * and out-of-bag slices of the children are returned as {in-bag[], out-of-bag[]}; null is returned for a leaf.
+		 * A split into more than max_children branches is not made, which lets level-order growth keep a leaf budget.
+		 */
+		SliceObjectDataset[][] expand(SliceObjectDataset data, SliceObjectDataset oobData, int max_children) throws Exception {
 //			System.out.println(this.node_depth + ":   " + (this.parent == null ? "r" : this.parent.node_id)  +"->"+ this.node_id +":"+ data.toString());
 			//System.out.println("The train method was called on a node");
 			//Debugging check
@@ -457,100 +594,57 @@ public class ProximityTree implements Serializable {
 //				return;
 			}
 
-			if (!AppContext.isRegression && data.purity(AppContext.purity_measure) <= AppContext.purity_threshold) {
-				this.label = computeLeafLabel(data._internal_class_list());
-				this.is_leaf = true;
-				this.tree.leaves.add(this);
-				return;
+			if (data.purity(AppContext.purity_measure) <= AppContext.purity_threshold) {
+				make_leaf(data);
+				return null;
 			}
 
-			if (AppContext.isRegression && data.purity(AppContext.purity_measure) <= AppContext.purity_threshold) {
-				this.label = computeLeafLabel(data._internal_class_list());
-				this.is_leaf = true;
-				this.tree.leaves.add(this);
-				return;
+			// node_depth is set when the node is created, so the depth limit costs O(1) per node (0 means no max depth)
+			if (AppContext.max_depth != 0 && this.node_depth >= AppContext.max_depth) {
+				make_leaf(data);
+				return null;
 			}
 
-			/*if (AppContext.max_depth != 0 && this.tree.get_height() >= AppContext.max_depth){ //0 means no max depth.
-				//first, get a count of each class present in the node. Then find the majority class.
-				//int[] classes = data.get_unique_classes();
-				Object[] classes = data.get_unique_classes();
-				Map<Integer, Integer> frequencyMap = new HashMap<>();
-
-				// Count frequencies of each element
-				for (int num : classes) {
-					frequencyMap.put(num, frequencyMap.getOrDefault(num, 0) + 1);
-				}
-
-				int mostFrequentElement = classes[0]; // Initialize with the first element
-				int maxFrequency = 0;
-
-				// Find the element with the maximum frequency
-				for (Map.Entry<Integer, Integer> entry : frequencyMap.entrySet()) {
-					if (entry.getValue() > maxFrequency) {
-						maxFrequency = entry.getValue();
-						mostFrequentElement = entry.getKey();
-					}
-				}
-				// Now that we have the most Frequent class, we consider the node to be this class and terminate.
-				this.label = mostFrequentElement;
-				this.is_leaf = true;
-				this.tree.leaves.add(this);
-				return;
-			}*/
-
-			if (AppContext.max_depth != 0 && this.tree.get_height() >= AppContext.max_depth) {
-
-				this.label = computeLeafLabel(data._internal_class_list());
-
-				this.is_leaf = true;
-				this.tree.leaves.add(this);
-				return;
+			int num_branches = AppContext.isRegression ? 2 : data.get_num_classes();
+			if (num_branches > max_children) {
+				make_leaf(data);
+				return null;
 			}
 
 			this.splitter = new Splitter(this);
 
-
 			//Dataset[] best_splits = splitter.find_best_split(data);
-			ObjectDataset[] best_splits = splitter.find_best_split(data);
+			SliceObjectDataset[] best_splits = splitter.find_best_split(data);
 
 			// check to see if any would-be child nodes are empty. We don't want that.
 			if (best_splits == null || Arrays.stream(best_splits).anyMatch(split -> split.size() == 0)) {
-				this.is_leaf = true;
-				this.label = computeLeafLabel(data._internal_class_list());
-				this.tree.leaves.add(this);
-			} else {
+				make_leaf(data);
+				return null;
+			}
 
-				//Dataset[] oob_splits = new Dataset[best_splits.length];
-				ObjectDataset[] oob_splits = new ObjectDataset[best_splits.length];
-				this.children = new Node[best_splits.length];
-				for (int i = 0; i < children.length; i++) {
-					this.children[i] = new Node(this, i, ++tree.node_counter, tree);
-					this.children[i].setInBagIndices(best_splits[i]._internal_indices_list());
-					oob_splits[i] = new ListObjectDataset();
-				}
-				//Now we need to let the oob indices trickle down (set the oob indices for the children).
-				//System.out.println(oobData.size());
-				for (int i = 0; i < oobData.size(); i++) {
-					int ind = oobData.get_index(i);
-					//int label = oobData.get_class(i);
-					Object label = oobData.get_class(i);
-					//double[] series = oobData.get_series(i);
-					Object series = oobData.get_series(i);
-					int branch = splitter.find_closest_branch(oobData.get_series(i));
-					//if (this.children[branch] != null){
-					//	this.children[branch].OutOfBagIndices.add(ind);
-					//}
-					this.children[branch].OutOfBagIndices.add(ind);
-					oob_splits[branch].add(label, series, ind);
-				}
+			this.children = new Node[best_splits.length];
+			for (int i = 0; i < children.length; i++) {
+				this.children[i] = new Node(this, i, tree.next_node_id(), tree);
+				this.children[i].setInBagIndices(best_splits[i]._internal_indices_list());
+			}
+			//Now we need to let the oob indices trickle down (set the oob indices for the children).
+			//System.out.println(oobData.size());
+			int[] oob_branches = new int[oobData.size()];
+			for (int i = 0; i < oobData.size(); i++) {
+				int branch = splitter.find_closest_branch(oobData.get_series(i));
+				this.children[branch].OutOfBagIndices.add(oobData.get_index(i));
+				oob_branches[i] = branch;
+			}
+			SliceObjectDataset[] oob_splits = oobData.partition(oob_branches, best_splits.length);
 
-				// Now train on the children.
-				for (int i = 0; i < best_splits.length; i++) {
+			return new SliceObjectDataset[][] {best_splits, oob_splits};
+		}
 
-					//this.children[i].train(best_splits[i]);
-					this.children[i].train(best_splits[i], oob_splits[i]);
-				}
+		private void make_leaf(SliceObjectDataset data) {
+			this.label = computeLeafLabel(data._internal_class_list());
+			this.is_leaf = true;
+			synchronized (this.tree.leaves) {
+				this.tree.leaves.add(this);
 			}
 		}
 
@@ -1,15 +1,17 @@
 package trees;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Map;
 
 import core.AppContext;
+import core.WorkerPool;
 //import core.contracts.Dataset;
 import core.contracts.ObjectDataset;
 //import datasets.ListDataset;
-import datasets.ListObjectDataset;
+import datasets.SliceObjectDataset;
 import distance.DistanceMeasure;
+import distance.elastic.DTWLowerBounds;
+import purity.Labels;
 
 /**
  * 
@@ -25,57 +27,75 @@ public class Splitter implements Serializable {
 	//protected double[][] exemplars;
 	protected Object[] exemplars;
 	
-	protected DistanceMeasure temp_distance_measure;
-	//protected double[][] temp_exemplars;
-	protected Object[] temp_exemplars;
+	protected transient DTWLowerBounds bounds; // envelopes of exemplars, rebuilt lazily after deserialization
 	
 	//ListDataset[] best_split = null;
-	ListObjectDataset[] best_split = null;
+	transient SliceObjectDataset[] best_split = null; // only needed while the node trains
 	ProximityTree.Node node;
 	
 	public Splitter(ProximityTree.Node node) throws Exception {
 		this.node = node;	
 	}
 	
-	//public ListDataset[] split_data(Dataset sample, Map<Integer, ListDataset> data_per_class) throws Exception {
-	public ListObjectDataset[] split_data(ObjectDataset sample, Map<Object, ListObjectDataset> data_per_class) throws Exception {
-		ListObjectDataset[] splits;
-		temp_exemplars = new Object[AppContext.isRegression ? 2 : sample.get_num_classes()];
+	// one random exemplar per class, or two random rows for regression
+	private Object[] pick_exemplars(ObjectDataset sample, Map<Object, int[]> rows_per_class) {
+		Object[] e = new Object[AppContext.isRegression ? 2 : rows_per_class.size()];
 
 		if (AppContext.isRegression) {
-			splits = new ListObjectDataset[2];
 			for (int i = 0; i < 2; i++) {
-				splits[i] = new ListObjectDataset(sample.size());
 				int r = AppContext.getRand().nextInt(sample.size());
-				temp_exemplars[i] = sample.get_series(r);
+				e[i] = sample.get_series(r);
 			}
 		} else {
-			splits = new ListObjectDataset[sample.get_num_classes()];
 			int branch = 0;
-			for (Map.Entry<Object, ListObjectDataset> entry : data_per_class.entrySet()) {
-				splits[branch] = new ListObjectDataset(sample.size());
-				int r = AppContext.getRand().nextInt(entry.getValue().size());
-				temp_exemplars[branch] = entry.getValue().get_series(r);
+			for (Map.Entry<Object, int[]> entry : rows_per_class.entrySet()) {
+				int r = AppContext.getRand().nextInt(entry.getValue().length);
+				e[branch] = sample.get_series(entry.getValue()[r]);
 				branch++;
 			}
 		}
+		return e;
+	}
 
-		for (int j = 0; j < sample.size(); j++) {
-			int closest_branch = find_closest_branch(sample.get_series(j), temp_distance_measure, temp_exemplars);
-			splits[closest_branch].add(sample.get_class(j), sample.get_series(j), sample._internal_indices_list().get(j));
+	// The branch of every row of sample; rows are independent, so a large sample is assigned in parallel blocks.
+	private int[] assign_branches(ObjectDataset sample, DistanceMeasure dm, Object[] e, DTWLowerBounds b) throws Exception {
+		int[] branches = new int[sample.size()];
+		WorkerPool.Block block = (from, to) -> {
+			for (int j = from; j < to; j++) {
+				branches[j] = find_closest_branch(sample.get_series(j), dm, e, b);
+			}
+		};
+		if (is_parallel(sample)) {
+			WorkerPool.forEachBlock(sample.size(), block);
+		} else {
+			block.run(0, sample.size());
 		}
+		return branches;
+	}
 
-		return splits;
+	// whether the candidates and rows of this node are worth evaluating in parallel
+	private static boolean is_parallel(ObjectDataset sample) {
+		return AppContext.parallelSplits && sample.size() >= AppContext.parallelSplitThreshold;
 	}
 
 	//public int find_closest_branch(double[] query, DistanceMeasure dm, double[][] e) throws Exception{
 	public int find_closest_branch(Object query, DistanceMeasure dm, Object[] e) throws Exception{
 		return dm.find_closest_node(query, e, true, this.node.tree.getDistance_file());
 	}	
+
+	public int find_closest_branch(Object query, DistanceMeasure dm, Object[] e, DTWLowerBounds b) throws Exception{
+		return dm.find_closest_node(query, e, b, true, this.node.tree.getDistance_file());
+	}
 	
 	//public int find_closest_branch(double[] query) throws Exception{
 	public int find_closest_branch(Object query) throws Exception{
-		return this.distance_measure.find_closest_node(query, exemplars, true, this.node.tree.getDistance_file());
+		// concurrent predictions may each build the bounds once; they are immutable, so any copy will do
+		DTWLowerBounds b = bounds;
+		if (b == null) {
+			b = this.distance_measure.lowerBounds(exemplars);
+			bounds = b;
+		}
+		return this.distance_measure.find_closest_node(query, exemplars, b, true, this.node.tree.getDistance_file());
 	}		
 	
 	//public Dataset[] getBestSplits() {
@@ -85,33 +105,67 @@ public class Splitter implements Serializable {
 	
 	//public ListDataset[] find_best_split(Dataset data) throws Exception {
 	//public ListDataset[] find_best_split(ObjectDataset data) throws Exception {
-	public ListObjectDataset[] find_best_split(ObjectDataset data) throws Exception {
-		Map<Object, ListObjectDataset> data_per_class = AppContext.isRegression
+	/**
+	 * Evaluates the candidate splits of data and partitions data in place by the best one, returning the child slices.
+	 * Returns null, leaving data untouched, if the best split would leave a child empty.
+	 */
+	public SliceObjectDataset[] find_best_split(SliceObjectDataset data) throws Exception {
+		Map<Object, int[]> rows_per_class = AppContext.isRegression
 				? null
-				: data.split_classes();
-
-		double best_weighted_purity = Double.POSITIVE_INFINITY;
-		ListObjectDataset[] splits = null;
-		int parent_size = data.size();
-
-		for (int i = 0; i < AppContext.num_candidates_per_split; i++) {
-			temp_distance_measure = selectDistanceMeasure(data);
-
-			splits = AppContext.isRegression
-					? split_data(data, null)
-					: split_data(data, data_per_class);
+				: data.class_positions();
+		// labels in primitive form, converted once for all candidates
+		Labels labels = Labels.of(AppContext.purity_measure, data._internal_class_list());
+
+		// the random choices of all candidates are drawn first, in a fixed order, so they do not depend on
+		// whether the candidates are then evaluated one after another or concurrently
+		Candidate[] candidates = new Candidate[AppContext.num_candidates_per_split];
+		for (int i = 0; i < candidates.length; i++) {
+			Candidate c = new Candidate();
+			c.measure = selectDistanceMeasure(data);
+			c.exemplars = pick_exemplars(data, rows_per_class);
+			c.bounds = c.measure.lowerBounds(c.exemplars);
+			candidates[i] = c;
+		}
 
-			double weighted_purity = weighted_purity(parent_size, splits);
+		WorkerPool.Block evaluate = (from, to) -> {
+			for (int i = from; i < to; i++) {
+				Candidate c = candidates[i];
+				c.branches = assign_branches(data, c.measure, c.exemplars, c.bounds);
+				c.weighted_purity = labels.weighted(c.branches, c.exemplars.length);
+			}
+		};
+		if (is_parallel(data)) {
+			WorkerPool.forEachBlock(candidates.length, evaluate);
+		} else {
+			evaluate.run(0, candidates.length);
+		}
 
-			if (weighted_purity < best_weighted_purity) {
-				best_weighted_purity = weighted_purity;
-				best_split = splits;
-				distance_measure = temp_distance_measure;
-				exemplars = temp_exemplars;
+		double best_weighted_purity = Double.POSITIVE_INFINITY;
+		int[] best_branches = null;
+		for (Candidate c : candidates) {
+			if (c.weighted_purity < best_weighted_purity) {
+				best_weighted_purity = c.weighted_purity;
+				best_branches = c.branches;
+				distance_measure = c.measure;
+				exemplars = c.exemplars;
+				bounds = c.bounds;
 			}
 		}
 
-		this.num_children = best_split.length;
+		if (best_branches == null) {
+			return null; // no candidate had a comparable purity
+		}
+		this.num_children = exemplars.length;
+		int[] sizes = new int[num_children];
+		for (int branch : best_branches) {
+			sizes[branch]++;
+		}
+		for (int size : sizes) {
+			if (size == 0) {
+				return null;
+			}
+		}
+		this.best_split = data.partition(best_branches, num_children);
 		return this.best_split;
 	}
 
@@ -122,14 +176,15 @@ public class Splitter implements Serializable {
 				int r = AppContext.getRand().nextInt(AppContext.enabled_distance_measures.length);
 				dm = new DistanceMeasure(AppContext.enabled_distance_measures[r], AppContext.Descriptors.get(r));
 			} else {
-				dm = node.tree.tree_distance_measure;
+				// every node draws its own params for the tree's measure, so the nodes must not share one object
+				dm = node.tree.tree_distance_measure.copy();
 			}
 		} else {
 			if (AppContext.random_dm_per_node) {
 				int r = AppContext.getRand().nextInt(node.tree.getChosen_distances().length);
 				dm = new DistanceMeasure(node.tree.getChosen_distances()[r], AppContext.Descriptors.get(r));
 			} else {
-				dm = node.tree.tree_distance_measure;
+				dm = node.tree.tree_distance_measure.copy();
 			}
 		}
 
@@ -138,13 +193,13 @@ public class Splitter implements Serializable {
 	}
 
 
-	//public double weighted_gini(int parent_size, ListDataset[] splits) {
-	public double weighted_purity(int parent_size, ListObjectDataset[] splits) {
-		double wpurity = 0.0;
-		for (ListObjectDataset split : splits) {
-			wpurity += ((double) split.size() / parent_size) * split.purity(AppContext.purity_measure);
-		}
-		return wpurity;
+	// one candidate split: its measure and exemplars, and once evaluated, the branch of every row and the split's purity
+	private static final class Candidate {
+		DistanceMeasure measure;
+		Object[] exemplars;
+		DTWLowerBounds bounds;
+		int[] branches;
+		double weighted_purity;
 	}
 	
 }
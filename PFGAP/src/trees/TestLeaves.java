@@ -0,0 +1,32 @@
+package trees;
+
+/**
+ * The leaf every test query reached in every tree during one call to {@link ProximityForest#test}.
+ *
+ * Each (tree, query) slot is written by exactly one prediction, so concurrent predictions record their leaves
+ * without locking; the record is read only after the test call has joined all of them.
+ */
+public class TestLeaves {
+
+	private final ProximityTree.Node[][] leaves; // tree -> query -> leaf, null if the query was never routed
+
+	public TestLeaves(int numTrees, int numQueries) {
+		this.leaves = new ProximityTree.Node[numTrees][numQueries];
+	}
+
+	public void record(int tree, int query, ProximityTree.Node leaf) {
+		leaves[tree][query] = leaf;
+	}
+
+	public ProximityTree.Node leaf(int tree, int query) {
+		return leaves[tree][query];
+	}
+
+	public int numTrees() {
+		return leaves.length;
+	}
+
+	public int numQueries() {
+		return leaves.length == 0 ? 0 : leaves[0].length;
+	}
+}
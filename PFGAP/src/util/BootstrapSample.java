@@ -0,0 +1,68 @@
+package util;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A bootstrap sample of n rows drawn with replacement, kept in primitive arrays.
+ *
+ * The multiplicity of every row is counted in an int[] indexed by row, which also answers in-bag/out-of-bag
+ * membership in O(1), and the out-of-bag rows are collected in one ascending pass over it, so building
+ * the sample is O(n) with no boxing.
+ */
+public class BootstrapSample {
+
+	private final int[] draws;			// row picked at each draw, in draw order (duplicates kept)
+	private final int[] multiplicity;	// row -> number of times it was drawn
+	private final int[] outOfBag;		// rows never drawn, ascending
+
+	public BootstrapSample(int n, Random rand) {
+		this.draws = new int[n];
+		this.multiplicity = new int[n];
+		int numDistinct = 0;
+		for (int d = 0; d < n; d++) {
+			int row = rand.nextInt(n);
+			draws[d] = row;
+			if (multiplicity[row]++ == 0) {
+				numDistinct++;
+			}
+		}
+
+		this.outOfBag = new int[n - numDistinct];
+		int k = 0;
+		for (int row = 0; row < n; row++) {
+			if (multiplicity[row] == 0) {
+				outOfBag[k++] = row;
+			}
+		}
+	}
+
+	/** Draws a sample of n rows with the calling thread's generator, so trees can be bagged concurrently. */
+	public static BootstrapSample draw(int n) {
+		return new BootstrapSample(n, ThreadLocalRandom.current());
+	}
+
+	public int size() {
+		return draws.length;
+	}
+
+	public int[] draws() {
+		return draws;
+	}
+
+	public int[] multiplicities() {
+		return multiplicity;
+	}
+
+	public int[] outOfBag() {
+		return outOfBag;
+	}
+
+	public int multiplicity(int row) {
+		return multiplicity[row];
+	}
+
+	public boolean isInBag(int row) {
+		return multiplicity[row] > 0;
+	}
+}